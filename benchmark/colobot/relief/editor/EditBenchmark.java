@@ -0,0 +1,67 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single edit as done by ReliefEditor.changePixel: brush stamp,
+ * undo recording and patch capture for render thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EditBenchmark
+{
+    @Param({ "161", "1281" })
+    public int size;
+    
+    @Param({ "0", "8" })
+    public int radius;
+    
+    private Heightfield relief;
+    private final Brush brush = new Brush();
+    private final DirtyRegion dirty = new DirtyRegion();
+    private final EditHistory history = new EditHistory(1L << 20);
+    private int amount = 1;
+    
+    
+    @Setup
+    public void setup()
+    {
+        relief = Reliefs.random(size, new Random(1));
+        brush.setRadius(radius);
+    }
+    
+    @Benchmark
+    public HeightPatch changePixel()
+    {
+        // alternate direction so relief does not saturate
+        amount = -amount;
+        
+        history.beginStroke();
+        brush.apply(relief, size / 2, size / 2, amount, history, dirty);
+        history.endStroke();
+        
+        DirtyRegion region = dirty.take();
+        
+        return HeightPatch.capture(relief, region.getMinX(), region.getMinY(),
+                region.getMaxX(), region.getMaxY());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Streaming gray image codecs compared with decoding and encoding through
+ * BufferedImage and ImageIO, as done before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GrayImageIOBenchmark
+{
+    @Param({ "161", "641", "1281" })
+    public int size;
+    
+    @Param({ "png", "bmp" })
+    public String format;
+    
+    @Param({ "native", "imageio" })
+    public String codec;
+    
+    private Heightfield relief;
+    private File input;
+    private File output;
+    
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        relief = Reliefs.random(size, new Random(1));
+        
+        input = File.createTempFile("relief", "." + format);
+        output = File.createTempFile("relief", "." + format);
+        
+        ImageIO.write(relief.toImage(), format, input);
+    }
+    
+    @TearDown
+    public void tearDown()
+    {
+        input.delete();
+        output.delete();
+    }
+    
+    @Benchmark
+    public Heightfield read() throws IOException
+    {
+        if(codec.equals("native"))
+            return GrayImageIO.read(input, null);
+        else
+            return Heightfield.fromImage(ImageIO.read(input));
+    }
+    
+    @Benchmark
+    public long write() throws IOException
+    {
+        if(codec.equals("native"))
+            GrayImageIO.write(relief, output, null);
+        else
+            ImageIO.write(relief.toImage(), format, output);
+        
+        return output.length();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Index buffer generation for one chunk at given level of detail.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBenchmark
+{
+    @Param({ "16", "32", "64" })
+    public int chunk;
+    
+    @Param({ "1", "4" })
+    public int step;
+    
+    @Param({ "LIST", "BLOCKS", "STRIP" })
+    public LodIndexBuilder.Mode mode;
+    
+    
+    @Benchmark
+    public ShortBuffer build()
+    {
+        return LodIndexBuilder.build(chunk, chunk, step,
+                step, 2 * step, step, 2 * step, mode);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Prints average cache miss ratio of index orderings for several chunk
+ * sizes, levels of detail and vertex cache sizes. Lower is better.
+ */
+public class IndexReport
+{
+    private static final int[] CHUNKS = { 16, 32, 64 };
+    private static final int[] STEPS = { 1, 2, 4 };
+    private static final int[] CACHES = { 16, 24, 32 };
+    
+    
+    public static void main(String[] args)
+    {
+        System.out.printf("%-6s %5s %4s %7s %7s %7s %8s%n", "mode", "chunk",
+                "step", "acmr16", "acmr24", "acmr32", "indices");
+        
+        for(LodIndexBuilder.Mode mode : LodIndexBuilder.Mode.values())
+        {
+            for(int chunk : CHUNKS)
+            {
+                for(int step : STEPS)
+                {
+                    ShortBuffer elements = LodIndexBuilder.build(chunk, chunk,
+                            step, step, step, step, step, mode);
+                    
+                    System.out.printf("%-6s %5d %4d", mode, chunk, step);
+                    
+                    for(int cache : CACHES)
+                        System.out.printf(" %7.3f", LodIndexBuilder.getAcmr(
+                                elements, mode, cache));
+                    
+                    System.out.printf(" %8d%n", elements.remaining());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Height sync and normal recalculation of whole terrain mesh,
+ * as done by Editor.updateHeightMap after relief is replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MeshBenchmark
+{
+    @Param({ "161", "641", "1281" })
+    public int size;
+    
+    private TerrainMesh mesh;
+    private HeightPatch patch;
+    
+    
+    @Setup
+    public void setup()
+    {
+        mesh = new TerrainMesh(size, size);
+        patch = HeightPatch.reset(Reliefs.random(size, new Random(1)));
+        
+        mesh.applyPatch(patch, 0.25f, 30.0f);
+    }
+    
+    @Benchmark
+    public TerrainMesh heights()
+    {
+        mesh.applyPatch(patch, 0.25f, 30.0f);
+        
+        return mesh;
+    }
+    
+    @Benchmark
+    public TerrainMesh normals()
+    {
+        mesh.updateNormals(0, 0, size - 1, size - 1);
+        
+        return mesh;
+    }
+    
+    @Benchmark
+    public TerrainMesh create()
+    {
+        return new TerrainMesh(size, size);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening and saving relief files, as done by ReliefEditor.open/save.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReliefIOBenchmark
+{
+    @Param({ "161", "641", "1281" })
+    public int size;
+    
+    @Param({ "png", "bmp", "crhf" })
+    public String format;
+    
+    private Heightfield relief;
+    private File input;
+    private File output;
+    
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        relief = Reliefs.random(size, new Random(1));
+        
+        input = File.createTempFile("relief", "." + format);
+        output = File.createTempFile("relief", "." + format);
+        
+        ReliefIO.write(relief, input);
+    }
+    
+    @TearDown
+    public void tearDown()
+    {
+        input.delete();
+        output.delete();
+    }
+    
+    @Benchmark
+    public Heightfield open() throws IOException
+    {
+        return ReliefIO.read(input);
+    }
+    
+    @Benchmark
+    public Heightfield save() throws IOException
+    {
+        return ReliefIO.write(relief, output);
+    }
+}
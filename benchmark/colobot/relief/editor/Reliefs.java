@@ -0,0 +1,38 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Random;
+
+/**
+ * Test reliefs for benchmarks.
+ */
+public class Reliefs
+{
+    private Reliefs()
+    {
+        
+    }
+    
+    /**
+     * Creates relief of smooth hills with small noise, so that image
+     * codecs see realistic data.
+     */
+    public static Heightfield random(int size, Random random)
+    {
+        Heightfield relief = new Heightfield(size, size);
+        
+        for(int j=0; j<size; j++)
+        {
+            for(int i=0; i<size; i++)
+            {
+                double h = 100 + 60 * Math.sin(i * 0.05) * Math.cos(j * 0.07);
+                
+                relief.set(i, j, (int) h + random.nextInt(4));
+            }
+        }
+        
+        return relief;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless relief processing driven by script file.
+ * 
+ * Script contains one command per line, # starts comment:
+ *   input <file or directory>   relief(s) to process, can be repeated;
+ *                               only relief files are taken from directory
+ *   output <directory>          where results are written
+ *   format <extension>          output format (default: same as input)
+ *   threads <count>             number of worker threads
+ *   offset, scale, smooth, clamp, resample
+ *                               operations, see ReliefOperations
+ * 
+ * Operations are applied in script order to every input relief.
+ * Reliefs are processed in parallel on bounded thread pool. Inputs that
+ * would be written to the same output file fail without being processed.
+ */
+public class BatchProcessor
+{
+    private final List<File> inputs = new ArrayList<>();
+    private final List<ReliefOperation> operations = new ArrayList<>();
+    private File output = null;
+    private String format = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    
+    
+    public void parse(File script) throws IOException
+    {
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(script), StandardCharsets.UTF_8)))
+        {
+            String line;
+            int number = 0;
+            
+            while((line = reader.readLine()) != null)
+            {
+                number++;
+                
+                int comment = line.indexOf('#');
+                if(comment >= 0) line = line.substring(0, comment);
+                
+                line = line.trim();
+                if(line.isEmpty()) continue;
+                
+                try
+                {
+                    parseLine(script.getAbsoluteFile().getParentFile(), line);
+                }
+                catch(RuntimeException e)
+                {
+                    throw new IOException(script.getName() + ":" + number
+                            + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        
+        if(output == null)
+            throw new IOException("No output directory in script");
+    }
+    
+    private void parseLine(File base, String line)
+    {
+        String[] args = line.split("\\s+", 2);
+        String command = args[0].toLowerCase();
+        String argument = args.length > 1 ? args[1] : "";
+        
+        switch(command)
+        {
+            case "input":
+                addInput(resolve(base, argument));
+                break;
+            case "output":
+                output = resolve(base, argument);
+                break;
+            case "format":
+                format = argument.toLowerCase();
+                break;
+            case "threads":
+                threads = Integer.parseInt(argument);
+                if(threads < 1)
+                    throw new IllegalArgumentException("Invalid thread count");
+                break;
+            default:
+                operations.add(ReliefOperations.parse(line));
+                break;
+        }
+    }
+    
+    private static File resolve(File base, String path)
+    {
+        if(path.isEmpty())
+            throw new IllegalArgumentException("Missing path");
+        
+        File file = new File(path);
+        
+        return file.isAbsolute() ? file : new File(base, path);
+    }
+    
+    private void addInput(File file)
+    {
+        if(file.isDirectory())
+        {
+            File[] files = file.listFiles();
+            
+            for(File f : files)
+            {
+                if(f.isFile() && ReliefIO.isReliefFile(f)) inputs.add(f);
+            }
+        }
+        else if(file.isFile())
+        {
+            inputs.add(file);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Input not found: " + file);
+        }
+    }
+    
+    /**
+     * Processes all inputs and returns number of failed reliefs.
+     */
+    public int process() throws InterruptedException
+    {
+        if(!output.exists() && !output.mkdirs())
+        {
+            System.err.println("Cannot create output directory: " + output);
+            return inputs.size();
+        }
+        
+        List<File> files = new ArrayList<>();
+        Map<String, Integer> writers = new HashMap<>();
+        
+        // e.g. a.png and a.bmp both become a.png with format set,
+        // names are compared ignoring case like on some file systems
+        for(File input : inputs)
+        {
+            File file = getOutput(input);
+            String key = file.getName().toLowerCase();
+            Integer count = writers.get(key);
+            
+            files.add(file);
+            writers.put(key, count == null ? 1 : count + 1);
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<File>> results = new ArrayList<>();
+        
+        try
+        {
+            for(int i=0; i<inputs.size(); i++)
+            {
+                final File input = inputs.get(i);
+                final File file = files.get(i);
+                
+                if(writers.get(file.getName().toLowerCase()) > 1)
+                {
+                    results.add(null);
+                    continue;
+                }
+                
+                results.add(executor.submit(new Callable<File>()
+                {
+                    @Override
+                    public File call() throws Exception
+                    {
+                        return process(input, file);
+                    }
+                }));
+            }
+            
+            int failed = 0;
+            
+            for(int i=0; i<results.size(); i++)
+            {
+                if(results.get(i) == null)
+                {
+                    System.err.println(inputs.get(i) + ": output " + files.get(i)
+                            + " would be written by more than one input");
+                    failed++;
+                    continue;
+                }
+                
+                try
+                {
+                    File result = results.get(i).get();
+                    System.out.println(inputs.get(i) + " -> " + result);
+                }
+                catch(ExecutionException e)
+                {
+                    System.err.println(inputs.get(i) + ": "
+                            + e.getCause().getLocalizedMessage());
+                    failed++;
+                }
+            }
+            
+            return failed;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    private File getOutput(File input)
+    {
+        String name = input.getName();
+        int index = name.lastIndexOf('.');
+        
+        if(format != null)
+            name = (index < 0 ? name : name.substring(0, index)) + "." + format;
+        
+        return new File(output, name);
+    }
+    
+    private File process(File input, File file) throws IOException
+    {
+        Heightfield relief = ReliefIO.read(input);
+        
+        // never modify input file through its mapping
+        if(relief instanceof MappedHeightfield)
+            relief = relief.copy();
+        
+        for(ReliefOperation operation : operations)
+            relief = operation.apply(relief);
+        
+        ReliefIO.write(relief, file);
+        
+        return file;
+    }
+    
+    public static int run(File script)
+    {
+        try
+        {
+            BatchProcessor processor = new BatchProcessor();
+            processor.parse(script);
+            
+            return processor.process() == 0 ? 0 : 1;
+        }
+        catch(Exception e)
+        {
+            System.err.println(e.getLocalizedMessage());
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Random;
+
+/**
+ * Brush applied to relief as a single batched operation over its footprint.
+ * Falloff weights are precomputed whenever size, shape or falloff changes,
+ * so applying brush does not allocate.
+ */
+public class Brush
+{
+    public enum Shape
+    {
+        CIRCLE, SQUARE
+    }
+    
+    public enum Falloff
+    {
+        LINEAR, SMOOTH, GAUSSIAN
+    }
+    
+    public enum Mode
+    {
+        RAISE, LOWER, FLATTEN, SMOOTH, NOISE
+    }
+    
+    private int radius = 0;
+    private Shape shape = Shape.CIRCLE;
+    private Falloff falloff = Falloff.SMOOTH;
+    private Mode mode = Mode.RAISE;
+    
+    // weights of (2 * radius + 1)^2 footprint, 0 outside of shape
+    private float[] weights;
+    // copy of footprint with 1 cell border, used by smoothing
+    private int[] scratch;
+    
+    private final Random random = new Random();
+    
+    
+    public Brush()
+    {
+        updateWeights();
+    }
+    
+    public int getRadius()
+    {
+        return radius;
+    }
+    
+    public void setRadius(int radius)
+    {
+        this.radius = Math.max(radius, 0);
+        
+        updateWeights();
+    }
+    
+    public Shape getShape()
+    {
+        return shape;
+    }
+    
+    public void setShape(Shape shape)
+    {
+        this.shape = shape;
+        
+        updateWeights();
+    }
+    
+    public Falloff getFalloff()
+    {
+        return falloff;
+    }
+    
+    public void setFalloff(Falloff falloff)
+    {
+        this.falloff = falloff;
+        
+        updateWeights();
+    }
+    
+    public Mode getMode()
+    {
+        return mode;
+    }
+    
+    public void setMode(Mode mode)
+    {
+        this.mode = mode;
+    }
+    
+    public float getWeight(int dx, int dy)
+    {
+        return weights[(dx + radius) + (2 * radius + 1) * (dy + radius)];
+    }
+    
+    private void updateWeights()
+    {
+        int size = 2 * radius + 1;
+        
+        weights = new float[size * size];
+        scratch = new int[(size + 2) * (size + 2)];
+        
+        for(int dy=-radius; dy<=radius; dy++)
+        {
+            for(int dx=-radius; dx<=radius; dx++)
+            {
+                float distance;
+                
+                if(shape == Shape.CIRCLE)
+                {
+                    distance = (float) Math.sqrt(dx*dx + dy*dy);
+                    if(distance > radius + 0.5f) continue;
+                }
+                else
+                {
+                    distance = Math.max(Math.abs(dx), Math.abs(dy));
+                }
+                
+                float t = distance / (radius + 1);
+                float weight;
+                
+                switch(falloff)
+                {
+                    case LINEAR:
+                        weight = 1.0f - t;
+                        break;
+                    case SMOOTH:
+                        weight = 1.0f - t * t * (3.0f - 2.0f * t);
+                        break;
+                    default:
+                        weight = (float) Math.exp(-4.0f * t * t);
+                        break;
+                }
+                
+                weights[(dx + radius) + size * (dy + radius)] = weight;
+            }
+        }
+    }
+    
+    /**
+     * Applies brush centered at given cell.
+     * 
+     * @param amount height change at brush center (raise, lower, noise)
+     * @param history receives changed cells, may be null
+     * @param dirty receives changed rectangle
+     */
+    public void apply(Heightfield relief, int cx, int cy, int amount,
+            EditHistory history, DirtyRegion dirty)
+    {
+        if(!relief.contains(cx, cy)) return;
+        
+        int minX = Math.max(cx - radius, 0);
+        int minY = Math.max(cy - radius, 0);
+        int maxX = Math.min(cx + radius, relief.getWidth() - 1);
+        int maxY = Math.min(cy + radius, relief.getHeight() - 1);
+        
+        int size = 2 * radius + 1;
+        int target = relief.get(cx, cy);
+        
+        if(mode == Mode.SMOOTH)
+            copyFootprint(relief, cx, cy);
+        
+        for(int y=minY; y<=maxY; y++)
+        {
+            for(int x=minX; x<=maxX; x++)
+            {
+                float weight = weights[(x - cx + radius) + size * (y - cy + radius)];
+                if(weight == 0.0f) continue;
+                
+                int old = relief.get(x, y);
+                int v;
+                
+                // sample values grow downwards, so raising subtracts
+                switch(mode)
+                {
+                    case RAISE:
+                        v = old - Math.round(amount * weight);
+                        break;
+                    case LOWER:
+                        v = old + Math.round(amount * weight);
+                        break;
+                    case FLATTEN:
+                        v = old + Math.round((target - old) * weight);
+                        break;
+                    case SMOOTH:
+                        v = old + Math.round((average(x - cx, y - cy) - old) * weight);
+                        break;
+                    default:
+                        v = old + Math.round(amount * weight
+                                * (2.0f * random.nextFloat() - 1.0f));
+                        break;
+                }
+                
+                v = ReliefEditor.clamp(v, 0, 255);
+                
+                if(v == old) continue;
+                
+                relief.set(x, y, v);
+                
+                if(history != null)
+                    history.record(relief.getIndex(x, y), old, v);
+            }
+        }
+        
+        dirty.add(minX, minY, maxX, maxY);
+    }
+    
+    private void copyFootprint(Heightfield relief, int cx, int cy)
+    {
+        int size = 2 * radius + 3;
+        
+        for(int j=0; j<size; j++)
+        {
+            int y = ReliefEditor.clamp(cy - radius - 1 + j, 0, relief.getHeight() - 1);
+            
+            for(int i=0; i<size; i++)
+            {
+                int x = ReliefEditor.clamp(cx - radius - 1 + i, 0, relief.getWidth() - 1);
+                
+                scratch[i + size * j] = relief.get(x, y);
+            }
+        }
+    }
+    
+    private float average(int dx, int dy)
+    {
+        int size = 2 * radius + 3;
+        int i = dx + radius + 1;
+        int j = dy + radius + 1;
+        int sum = 0;
+        
+        for(int v=j-1; v<=j+1; v++)
+        {
+            for(int u=i-1; u<=i+1; u++)
+                sum += scratch[u + size * v];
+        }
+        
+        return sum / 9.0f;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+/**
+ * Bounding rectangle of relief cells changed since it was last taken.
+ */
+public class DirtyRegion
+{
+    private int minX, minY, maxX, maxY;
+    private boolean empty = true;
+    
+    
+    public DirtyRegion()
+    {
+        
+    }
+    
+    private DirtyRegion(int minX, int minY, int maxX, int maxY)
+    {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.empty = false;
+    }
+    
+    public synchronized void add(int x, int y)
+    {
+        add(x, y, x, y);
+    }
+    
+    public synchronized void add(int x1, int y1, int x2, int y2)
+    {
+        if(empty)
+        {
+            minX = x1;
+            minY = y1;
+            maxX = x2;
+            maxY = y2;
+            empty = false;
+        }
+        else
+        {
+            minX = Math.min(minX, x1);
+            minY = Math.min(minY, y1);
+            maxX = Math.max(maxX, x2);
+            maxY = Math.max(maxY, y2);
+        }
+    }
+    
+    public synchronized void clear()
+    {
+        empty = true;
+    }
+    
+    /**
+     * Returns a copy of this region and clears it.
+     */
+    public synchronized DirtyRegion take()
+    {
+        if(empty) return new DirtyRegion();
+        
+        DirtyRegion copy = new DirtyRegion(minX, minY, maxX, maxY);
+        empty = true;
+        
+        return copy;
+    }
+    
+    public synchronized boolean isEmpty()
+    {
+        return empty;
+    }
+    
+    public synchronized int getMinX()
+    {
+        return minX;
+    }
+    
+    public synchronized int getMinY()
+    {
+        return minY;
+    }
+    
+    public synchronized int getMaxX()
+    {
+        return maxX;
+    }
+    
+    public synchronized int getMaxY()
+    {
+        return maxY;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Undo and redo history storing only changed cells of each stroke.
+ * 
+ * Stroke is encoded as cells sorted by index: varint index delta followed by
+ * old and new value. Neighbouring cells cost three bytes. When total size
+ * exceeds limit, the oldest strokes are dropped.
+ */
+public class EditHistory
+{
+    private static final int INITIAL_CAPACITY = 64;
+    
+    // table of larger stroke (e.g. whole relief reload) is not kept
+    private static final int MAX_KEPT_TABLE = 1 << 16;
+    
+    private final Deque<byte[]> undo = new ArrayDeque<>();
+    private final Deque<byte[]> redo = new ArrayDeque<>();
+    private long size = 0;
+    private long limit;
+    
+    // current stroke: changes packed as index << 16 | old << 8 | new
+    private boolean stroke = false;
+    private long[] changes = new long[INITIAL_CAPACITY];
+    private int count = 0;
+    private int[] table = new int[2 * INITIAL_CAPACITY];
+    
+    
+    public EditHistory(long limit)
+    {
+        this.limit = limit;
+    }
+    
+    public long getLimit()
+    {
+        return limit;
+    }
+    
+    public void setLimit(long limit)
+    {
+        this.limit = limit;
+        
+        evict();
+    }
+    
+    /**
+     * Returns memory used by stored strokes in bytes.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+    
+    public boolean canUndo()
+    {
+        return !undo.isEmpty();
+    }
+    
+    public boolean canRedo()
+    {
+        return !redo.isEmpty();
+    }
+    
+    public void clear()
+    {
+        undo.clear();
+        redo.clear();
+        size = 0;
+        
+        stroke = false;
+        clearTable();
+        resetStroke();
+    }
+    
+    public boolean isStrokeActive()
+    {
+        return stroke;
+    }
+    
+    /**
+     * Starts grouping changes into one undo step.
+     */
+    public void beginStroke()
+    {
+        if(stroke) endStroke();
+        
+        stroke = true;
+    }
+    
+    public void endStroke()
+    {
+        stroke = false;
+        
+        if(count == 0) return;
+        
+        // slots are found by insertion order, so before sorting
+        clearTable();
+        Arrays.sort(changes, 0, count);
+        
+        byte[] data = encode();
+        resetStroke();
+        
+        undo.addLast(data);
+        size += data.length;
+        
+        for(byte[] entry : redo)
+            size -= entry.length;
+        
+        redo.clear();
+        
+        evict();
+    }
+    
+    /**
+     * Records change of single cell. Changes made outside stroke
+     * become separate undo steps.
+     */
+    public void record(int index, int oldValue, int newValue)
+    {
+        if(oldValue == newValue) return;
+        
+        int slot = find(index);
+        
+        if(table[slot] != 0)
+        {
+            // keep first old value and last new value
+            int position = table[slot] - 1;
+            changes[position] = (changes[position] & ~0xFFL) | newValue;
+        }
+        else
+        {
+            if(count == changes.length)
+                changes = Arrays.copyOf(changes, 2 * count);
+            
+            changes[count] = ((long) index << 16) | (oldValue << 8) | newValue;
+            count++;
+            table[slot] = count;
+            
+            if(2 * count > table.length)
+                rehash(2 * table.length);
+        }
+        
+        if(!stroke) endStroke();
+    }
+    
+    /**
+     * Reverts last stroke and marks changed cells in dirty region.
+     */
+    public boolean undo(Heightfield relief, DirtyRegion dirty)
+    {
+        if(stroke) endStroke();
+        if(undo.isEmpty()) return false;
+        
+        byte[] data = undo.removeLast();
+        apply(data, relief, dirty, true);
+        redo.addLast(data);
+        
+        return true;
+    }
+    
+    /**
+     * Applies again last reverted stroke.
+     */
+    public boolean redo(Heightfield relief, DirtyRegion dirty)
+    {
+        if(stroke) endStroke();
+        if(redo.isEmpty()) return false;
+        
+        byte[] data = redo.removeLast();
+        apply(data, relief, dirty, false);
+        undo.addLast(data);
+        
+        return true;
+    }
+    
+    private void evict()
+    {
+        while(size > limit && !undo.isEmpty())
+            size -= undo.removeFirst().length;
+    }
+    
+    /**
+     * Empties only used slots of hash table. Changes are removed in reverse
+     * order of insertion, so probe chains of remaining ones stay valid.
+     */
+    private void clearTable()
+    {
+        for(int i=count-1; i>=0; i--)
+            table[find((int) (changes[i] >>> 16))] = 0;
+    }
+    
+    private void resetStroke()
+    {
+        count = 0;
+        
+        if(table.length > MAX_KEPT_TABLE)
+        {
+            changes = new long[INITIAL_CAPACITY];
+            table = new int[2 * INITIAL_CAPACITY];
+        }
+    }
+    
+    private int find(int index)
+    {
+        int mask = table.length - 1;
+        int slot = (index * 0x9E3779B9) >>> 7 & mask;
+        
+        while(table[slot] != 0 && (int) (changes[table[slot] - 1] >>> 16) != index)
+            slot = (slot + 1) & mask;
+        
+        return slot;
+    }
+    
+    private void rehash(int length)
+    {
+        table = new int[length];
+        
+        for(int i=0; i<count; i++)
+            table[find((int) (changes[i] >>> 16))] = i + 1;
+    }
+    
+    private byte[] encode()
+    {
+        byte[] data = new byte[7 * count];
+        int position = 0;
+        int last = 0;
+        
+        for(int i=0; i<count; i++)
+        {
+            int index = (int) (changes[i] >>> 16);
+            int delta = index - last;
+            last = index;
+            
+            // varint, 7 bits per byte
+            while((delta & ~0x7F) != 0)
+            {
+                data[position++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            
+            data[position++] = (byte) delta;
+            data[position++] = (byte) (changes[i] >>> 8);
+            data[position++] = (byte) changes[i];
+        }
+        
+        return Arrays.copyOf(data, position);
+    }
+    
+    private static void apply(byte[] data, Heightfield relief,
+            DirtyRegion dirty, boolean old)
+    {
+        int width = relief.getWidth();
+        int size = width * relief.getHeight();
+        int position = 0;
+        int index = 0;
+        
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = -1, maxY = -1;
+        
+        while(position < data.length)
+        {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            
+            do
+            {
+                b = data[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while(b < 0);
+            
+            index += delta;
+            
+            int oldValue = 0xFF & data[position++];
+            int newValue = 0xFF & data[position++];
+            
+            if(index >= size) continue;
+            
+            relief.set(index, old ? oldValue : newValue);
+            
+            int x = index % width;
+            int y = index / width;
+            
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        
+        if(maxX >= 0)
+            dirty.add(minX, minY, maxX, maxY);
+    }
+}
@@ -6,21 +6,24 @@ package colobot.relief.editor;
 import java.awt.GridLayout;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileFilter;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.ObjectName;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.input.Mouse;
 import org.lwjgl.opengl.AWTGLCanvas;
 import org.lwjgl.opengl.Display;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL12.*;
 import static org.lwjgl.util.glu.GLU.*;
 
 public class Editor implements Runnable, WindowListener
@@ -31,10 +34,18 @@ public class Editor implements Runnable, WindowListener
     private boolean exit = false;
     private boolean rendering = false;
     
-    private ByteBuffer vertices;
-    private ShortBuffer elements;
+    private TerrainMesh mesh;
+    private TerrainLod lod;
+    private TerrainShader shader;
+    private TerrainBuffers buffers;
+    private final VertexLayout layout = new VertexLayout(
+            getOption("relief.normals", VertexLayout.Normals.BYTE));
+    private final LodIndexBuilder.Mode indexMode
+            = getOption("relief.indices", LodIndexBuilder.Mode.BLOCKS);
+    private final List<HeightPatch> pending = new ArrayList<>();
     private FloatBuffer floats;
-    private int[] textures;
+    private TextureLibrary textures;
+    private FileWatcher watcher;
     private int texture = 0;
     
     private float scale = 1.0f;
@@ -43,9 +54,6 @@ public class Editor implements Runnable, WindowListener
     private float pitch, yaw;
     private float speed = 1.0f;
     
-    private int counter = 0;
-    private int counterMax = 30;
-    
     private boolean captured = false;
     private boolean keyUp = false;
     private boolean keyDown = false;
@@ -54,6 +62,15 @@ public class Editor implements Runnable, WindowListener
     
     private boolean lines = false;
     
+    // fixed timestep of 1/60 s for camera movement
+    private static final long STEP = 1000000000L / 60;
+    private static final long MAX_STEPS = 5;
+    private static final long STATS_INTERVAL = 10000000000L;
+    
+    private final FrameStats stats = new FrameStats();
+    private boolean statsLogging = false;
+    private boolean lodEnabled = true;
+    
     
     @Override
     public void run()
@@ -68,14 +85,46 @@ public class Editor implements Runnable, WindowListener
         }
     }
     
+    public void setStatsLogging(boolean statsLogging)
+    {
+        this.statsLogging = statsLogging;
+    }
+    
     private void doRun() throws Exception
     {
         init();
         
+        long time = System.nanoTime();
+        long accumulator = 0;
+        long lastLog = time;
+        
         while(!exit)
         {
+            long frameStart = System.nanoTime();
+            
             update();
+            
+            // camera moves in fixed steps, independent of frame rate
+            long now = System.nanoTime();
+            accumulator = Math.min(accumulator + now - time, MAX_STEPS * STEP);
+            time = now;
+            
+            while(accumulator >= STEP)
+            {
+                step();
+                accumulator -= STEP;
+            }
+            
             render();
+            
+            stats.add(FrameStats.FRAME, System.nanoTime() - frameStart);
+            stats.endFrame();
+            
+            if(statsLogging && now - lastLog >= STATS_INTERVAL)
+            {
+                System.out.print(stats.getReport());
+                lastLog = now;
+            }
         }
         
         release();
@@ -85,6 +134,7 @@ public class Editor implements Runnable, WindowListener
     {
         window = new JFrame("Colobot Relief Editor");
         editor = new ReliefEditor();
+        editor.setWaterLevel(Math.round(water / (0.25f * scale)));
         canvas = new AWTGLCanvas();
         
         JPanel panel = new JPanel(new GridLayout(1, 2));
@@ -102,6 +152,16 @@ public class Editor implements Runnable, WindowListener
         Display.setVSyncEnabled(true);
         Display.create();
         
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+                    new ObjectName("colobot.relief.editor:type=FrameStats"));
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+        
         glClearColor(0.2f, 0.2f, 0.2f, 0.0f);
         glEnable(GL_DEPTH_TEST);
         
@@ -115,88 +175,106 @@ public class Editor implements Runnable, WindowListener
         pitch = 0;
         yaw = 180;
         
-        vertices = BufferUtils.createByteBuffer(161 * 161 * 8 * 4);
-        elements = BufferUtils.createShortBuffer(6 * 160 * 160);
-        floats = BufferUtils.createFloatBuffer(12);
+        shader = new TerrainShader();
+        shader.create();
         
-        for(int j=0; j<161; j++)
-        {
-            for(int i=0; i<161; i++)
-            {
-                vertices.putFloat(5*i).putFloat(0).putFloat(5*j);
-                vertices.putFloat(i).putFloat(j);
-                vertices.putFloat(0).putFloat(1).putFloat(0);
-                
-                setHeight(i, j, 0);
-            }
-        }
+        mesh = new TerrainMesh(161, 161, layout, indexMode);
+        lod = new TerrainLod(mesh);
+        buffers = new TerrainBuffers(mesh);
+        floats = BufferUtils.createFloatBuffer(12);
         
-        vertices.flip();
+        // textures are decoded on first use, checkerboard is shown meanwhile
+        File dir = new File("textures");
+        if(!dir.exists())
+            dir.mkdir();
         
-        for(int i=0; i<160; i++)
+        File[] files = dir.listFiles(new FileFilter()
         {
-            for(int j=0; j<160; j++)
+            @Override
+            public boolean accept(File file)
             {
-                elements.put(getVertexIndex(i  , j  ));
-                elements.put(getVertexIndex(i  , j+1));
-                elements.put(getVertexIndex(i+1, j+1));
-                
-                elements.put(getVertexIndex(i+1, j+1));
-                elements.put(getVertexIndex(i+1, j  ));
-                elements.put(getVertexIndex(i  , j  ));
+                return file.isFile();
             }
-        }
+        });
+        if(files == null)
+            files = new File[0];
         
-        elements.flip();
+        Arrays.sort(files);
         
-        ByteBuffer buffer = BufferUtils.createByteBuffer(4 * 1024 * 1024);
-        
-        // loading textures
-        
-        File dir = new File("textures");
-        if(!dir.exists())
-            dir.mkdir();
+        // decoded textures are cached unless -Drelief.cache is empty
+        String cacheDir = System.getProperty("relief.cache", "cache");
+        TextureCache cache = null;
         
-        File[] files = dir.listFiles();
-        
-        if(files.length == 0)
+        if(!cacheDir.isEmpty())
         {
-            textures = new int[1];
-
-            // default texture
-            buffer.clear();
-
-            buffer.putInt(0xFFFFFFFF);
-            buffer.putInt(0xFF000000);
-            buffer.putInt(0xFF000000);
-            buffer.putInt(0xFFFFFFFF);
-
-            buffer.flip();
-
-            textures[0] = glGenTextures();
-            glBindTexture(GL_TEXTURE_2D, textures[0]);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
-            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 2, 2, 0,
-                    GL_RGBA, GL_UNSIGNED_BYTE, buffer);
-            glBindTexture(GL_TEXTURE_2D, 0);
+            long cacheSize = Long.getLong("relief.cache.size", 256) << 20;
+            boolean deflate = Boolean.getBoolean("relief.cache.deflate");
+            
+            cache = new TextureCache(new File(cacheDir), cacheSize, deflate);
         }
-        else
+        
+        textures = new TextureLibrary(files, createDefaultTexture(), cache);
+        textures.request(0);
+        
+        // files changed by other programs are reloaded, unless -Drelief.watch=false
+        if(!"false".equals(System.getProperty("relief.watch")))
         {
-            textures = new int[files.length];
-
-            for(int i=0; i<files.length; i++)
+            watcher = new FileWatcher();
+            watcher.watchDirectory(dir, new FileWatcher.Listener()
             {
-                textures[i] = loadTexture(buffer, files[i]);
-            }
+                @Override
+                public void changed(File file)
+                {
+                    textures.reload(file);
+                }
+            });
+            
+            editor.setWatcher(watcher);
         }
     }
     
+    private int createDefaultTexture()
+    {
+        ByteBuffer buffer = BufferUtils.createByteBuffer(16);
+        
+        buffer.putInt(0xFFFFFFFF);
+        buffer.putInt(0xFF000000);
+        buffer.putInt(0xFF000000);
+        buffer.putInt(0xFFFFFFFF);
+        
+        buffer.flip();
+        
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 2, 2, 0,
+                GL_RGBA, GL_UNSIGNED_BYTE, buffer);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        
+        return id;
+    }
+    
     private void release()
     {
+        buffers.release();
+        textures.release();
+        
+        if(watcher != null)
+            watcher.close();
+        
+        shader.destroy();
         Display.destroy();
+        
+        if(statsLogging)
+            System.out.print(stats.getReport());
+    }
+    
+    public FrameStats getStats()
+    {
+        return stats;
     }
     
     private void update()
@@ -204,7 +282,9 @@ public class Editor implements Runnable, WindowListener
         Display.sync(60);
         Display.update();
         
+        long start = System.nanoTime();
         processInput();
+        stats.add(FrameStats.INPUT, System.nanoTime() - start);
         
         updateHeightMap();
     }
@@ -233,14 +313,27 @@ public class Editor implements Runnable, WindowListener
                     keyRight = state;
                     break;
                 case Keyboard.KEY_EQUALS:
-                    editor.addChange(1);
+                    addChange(1);
                     break;
                 case Keyboard.KEY_MINUS:
-                    editor.addChange(-1);
+                    addChange(-1);
+                    break;
+                case Keyboard.KEY_Z:
+                    if(state && Keyboard.isKeyDown(Keyboard.KEY_LCONTROL))
+                        undo(true);
+                    break;
+                case Keyboard.KEY_Y:
+                    if(state && Keyboard.isKeyDown(Keyboard.KEY_LCONTROL))
+                        undo(false);
                     break;
                 case Keyboard.KEY_E:
-                    if(state)
-                        texture = (texture + 1) % textures.length;
+                    if(state && textures.getCount() > 0)
+                    {
+                        texture = (texture + 1) % textures.getCount();
+                        
+                        // next texture is decoded while this one is shown
+                        textures.request((texture + 1) % textures.getCount());
+                    }
                     break;
                 case Keyboard.KEY_ESCAPE:
                     if(state)
@@ -255,14 +348,15 @@ public class Editor implements Runnable, WindowListener
                 case Keyboard.KEY_F2:
                     lines = true;
                     break;
+                case Keyboard.KEY_F3:
+                    lodEnabled = false;
+                    break;
+                case Keyboard.KEY_F4:
+                    lodEnabled = true;
+                    break;
             }
         }
         
-        if(keyUp) dPitch -= 1.0f;
-        if(keyDown) dPitch += 1.0f;
-        if(keyLeft) dYaw -= 1.0f;
-        if(keyRight) dYaw += 1.0f;
-        
         while(Mouse.next())
         {
             int dx = Mouse.getEventDX();
@@ -287,19 +381,27 @@ public class Editor implements Runnable, WindowListener
                 }
                 else if(Keyboard.isKeyDown(Keyboard.KEY_LCONTROL))
                 {
-                    editor.changePixel(wheel > 0 ? 1 : -1);
+                    changePixel(wheel > 0 ? 1 : -1);
                 }
                 else
                 {
                     float dScale = 0.0125f * wheel;
 
-                    editor.addScale(dScale);
+                    addScale(dScale);
                 }
             }
         }
         
         pitch += dPitch;
         yaw += dYaw;
+    }
+    
+    private void step()
+    {
+        if(keyUp) pitch -= 1.0f;
+        if(keyDown) pitch += 1.0f;
+        if(keyLeft) yaw -= 1.0f;
+        if(keyRight) yaw += 1.0f;
         
         if(Keyboard.isKeyDown(Keyboard.KEY_SPACE))
         {
@@ -314,6 +416,58 @@ public class Editor implements Runnable, WindowListener
         }
     }
     
+    // relief editor is changed only on Swing thread, so input is forwarded
+    private void addChange(final int dChange)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                editor.addChange(dChange);
+            }
+        });
+    }
+    
+    private void addScale(final float dScale)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                editor.addScale(dScale);
+            }
+        });
+    }
+    
+    private void changePixel(final int dv)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                editor.changePixel(dv);
+            }
+        });
+    }
+    
+    private void undo(final boolean undo)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(undo)
+                    editor.undo();
+                else
+                    editor.redo();
+            }
+        });
+    }
+    
     private void render()
     {
         if(!rendering) return;
@@ -355,22 +509,47 @@ public class Editor implements Runnable, WindowListener
         floats.flip();
         glLight(GL_LIGHT0, GL_POSITION, floats);
         
+        textures.update();
+        
         glEnable(GL_TEXTURE_2D);
-        glBindTexture(GL_TEXTURE_2D, textures[texture]);
+        glBindTexture(GL_TEXTURE_2D, textures.get(texture));
         
-        glEnableClientState(GL_VERTEX_ARRAY);
-        glEnableClientState(GL_TEXTURE_COORD_ARRAY);
-        glEnableClientState(GL_NORMAL_ARRAY);
+        // select level of detail for each chunk
+        long start = System.nanoTime();
         
-        glVertexPointer(3, GL_FLOAT, 8*4, (ByteBuffer) vertices.position(0));
-        glTexCoordPointer(2, GL_FLOAT, 8*4, (ByteBuffer) vertices.position(3*4));
-        glNormalPointer(GL_FLOAT, 8*4, (ByteBuffer) vertices.position(5*4));
+        if(lodEnabled)
+        {
+            float pixelsPerUnit = 0.5f * height
+                    / (float) Math.tan(Math.toRadians(30.0));
+            
+            lod.update(x, y, z, pixelsPerUnit);
+        }
+        
+        stats.add(FrameStats.LOD, System.nanoTime() - start);
+        start = System.nanoTime();
+        
+        // send vertices changed since last frame to vertex buffers
+        buffers.upload();
+        
+        stats.add(FrameStats.UPLOAD, System.nanoTime() - start);
+        start = System.nanoTime();
+        
+        TerrainChunk[] chunks = mesh.getChunks();
+        
+        shader.begin();
+        
+        for(int i=0; i<chunks.length; i++)
+        {
+            if(lodEnabled)
+                buffers.draw(i, lod.getElements(i), shader);
+            else
+                buffers.draw(i, chunks[i].getElements(), shader);
+        }
         
-        glDrawElements(GL_TRIANGLES, elements);
+        shader.end();
+        buffers.unbind();
         
-        glDisableClientState(GL_NORMAL_ARRAY);
-        glDisableClientState(GL_TEXTURE_COORD_ARRAY);
-        glDisableClientState(GL_VERTEX_ARRAY);
+        stats.add(FrameStats.DRAW, System.nanoTime() - start);
         
         glDisable(GL_TEXTURE_2D);
         glBindTexture(GL_TEXTURE_2D, 0);
@@ -387,8 +566,8 @@ public class Editor implements Runnable, WindowListener
         
         do
         {
-            if(sx < 0 || sx > 160) break;
-            if(sy < 0 || sy > 160) break;
+            if(sx < 0 || sx >= mesh.getWidth()) break;
+            if(sy < 0 || sy >= mesh.getHeight()) break;
 
             glDisable(GL_LIGHTING);
 
@@ -415,14 +594,17 @@ public class Editor implements Runnable, WindowListener
         glDepthMask(false);
         
         // render water surface
+        float wx = 5.0f * mesh.getWidth();
+        float wz = 5.0f * mesh.getHeight();
+        
         glColor4f(0.1f, 0.2f, 0.8f, 0.5f);
         
         glBegin(GL_QUADS);
         
-            glVertex3f(    0, 0,     0);
-            glVertex3f(5*161, 0,     0);
-            glVertex3f(5*161, 0, 5*161);
-            glVertex3f(    0, 0, 5*161);
+            glVertex3f( 0, 0,  0);
+            glVertex3f(wx, 0,  0);
+            glVertex3f(wx, 0, wz);
+            glVertex3f( 0, 0, wz);
         
         glEnd();
         
@@ -474,136 +656,101 @@ public class Editor implements Runnable, WindowListener
     
     private void updateHeightMap()
     {
-        BufferedImage image = editor.getRelief();
+        // take all changes published by Swing thread since last frame
+        pending.clear();
         
-        // update height values
-        if(image != null)
-        {
-            for(int i=0; i<161; i++)
-            {
-                for(int j=0; j<161; j++)
-                {
-                    float value = 0.25f * scale
-                            * (255 - (0xFF & image.getRGB(i, j))) - water;
-
-                    setHeight(i, j, value);
-                }
-            }
-        }
-        else
+        for(HeightPatch patch=editor.pollPatch(); patch!=null; patch=editor.pollPatch())
         {
-            for(int i=0; i<161; i++)
-            {
-                for(int j=0; j<161; j++)
-                {
-                    setHeight(i, j, 0.0f);
-                }
-            }
+            // everything before relief replacement is obsolete
+            if(patch.isReset())
+                pending.clear();
+            
+            pending.add(patch);
         }
         
-        // update normals -- every 100 frame
-        counter++;
+        if(pending.isEmpty()) return;
         
-        if(counter == counterMax)
+        long start = System.nanoTime();
+        
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = -1, maxY = -1;
+        
+        for(HeightPatch patch : pending)
         {
-            for(int i=1; i<160; i++)
+            if(patch.isReset())
             {
-                for(int j=1; j<160; j++)
+                // relief was replaced -- rebuild mesh if size changed
+                int width = patch.getReliefWidth();
+                int height = patch.getReliefHeight();
+                
+                if(width != mesh.getWidth() || height != mesh.getHeight())
                 {
-                    float h = getHeight(i, j);
-                    float x1 = h - getHeight(i-1, j);
-                    float x2 = h - getHeight(i+1, j);
-                    float y1 = h - getHeight(i, j-1);
-                    float y2 = h - getHeight(i, j+1);
+                    mesh = new TerrainMesh(width, height, layout, indexMode);
+                    lod = new TerrainLod(mesh);
                     
-                    float nx = x1 - x2;
-                    float ny = 5;
-                    float nz = y1 - y2;
-                    
-                    float dist = 1 / (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
-                    
-                    nx *= dist;
-                    ny *= dist;
-                    nz *= dist;
-                    
-                    setNormal(i, j, nx, ny, nz);
+                    buffers.release();
+                    buffers = new TerrainBuffers(mesh);
                 }
             }
             
-            counter = 0;
+            // update height values -- only cells changed since last frame
+            mesh.applyPatch(patch, 0.25f * scale, water);
+            
+            int x1 = patch.getX();
+            int y1 = patch.getY();
+            int x2 = x1 + patch.getWidth() - 1;
+            int y2 = y1 + patch.getHeight() - 1;
+            
+            minX = Math.min(minX, x1);
+            minY = Math.min(minY, y1);
+            maxX = Math.max(maxX, x2);
+            maxY = Math.max(maxY, y2);
         }
-    }
-    
-    private short getVertexIndex(int x, int y)
-    {
-        return (short)(x + 161 * y);
-    }
-    
-    private int getVertexOffset(int x, int y)
-    {
-        return (8 * 4) * (x + 161 * y);
-    }
-    
-    private float getHeight(int x, int y)
-    {
-        int index = getVertexOffset(x, y) + 4;
         
-        return vertices.getFloat(index);
-    }
-    
-    private void setHeight(int x, int y, float value)
-    {
-        int index = getVertexOffset(x, y) + 4;
+        pending.clear();
+        
+        long middle = System.nanoTime();
+        stats.add(FrameStats.HEIGHTS, middle - start);
         
-        vertices.putFloat(index, value);
+        // update normals -- changed cells and their 4-neighbourhood
+        mesh.updateNormals(Math.max(minX - 1, 0), Math.max(minY - 1, 0),
+                Math.min(maxX + 1, mesh.getWidth() - 1),
+                Math.min(maxY + 1, mesh.getHeight() - 1));
+        
+        stats.add(FrameStats.NORMALS, System.nanoTime() - middle);
     }
     
-    private void setNormal(int x, int y, float nx, float ny, float nz)
+    /**
+     * Returns enum constant named by system property. Invalid value is
+     * reported with accepted values and default is used instead.
+     */
+    private static <E extends Enum<E>> E getOption(String property, E defaultValue)
     {
-        int index = getVertexOffset(x, y) + 20;
+        String value = System.getProperty(property);
+        
+        if(value == null) return defaultValue;
+        
+        Class<E> type = defaultValue.getDeclaringClass();
         
-        vertices.putFloat(index+0, nx);
-        vertices.putFloat(index+4, ny);
-        vertices.putFloat(index+8, nz);
-    }
-
-    private int loadTexture(ByteBuffer buffer, File file)
-    {
         try
         {
-            BufferedImage image = ImageIO.read(file);
-
-            int width = image.getWidth();
-            int height = image.getHeight();
-            
-            buffer.clear();
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        }
+        catch(IllegalArgumentException e)
+        {
+            StringBuilder names = new StringBuilder();
             
-            for(int j=height-1; j>=0; j--)
+            for(E constant : type.getEnumConstants())
             {
-                for(int i=0; i<width; i++)
-                {
-                    buffer.putInt(image.getRGB(i, j));
-                }
+                if(names.length() > 0) names.append(", ");
+                names.append(constant.name().toLowerCase());
             }
             
-            buffer.flip();
+            System.err.println("Invalid " + property + " value: " + value
+                    + " (accepted: " + names + "), using "
+                    + defaultValue.name().toLowerCase());
             
-            int id = glGenTextures();
-            glBindTexture(GL_TEXTURE_2D, id);
-
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
-            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height,
-                    0, GL_BGRA, GL_UNSIGNED_BYTE, buffer);
-
-            glBindTexture(GL_TEXTURE_2D, 0);
-            return id;
-        }
-        catch(Exception e)
-        {
-            return 0;
+            return defaultValue;
         }
     }
 }
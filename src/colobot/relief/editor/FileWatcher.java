@@ -0,0 +1,213 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifies about files changed by other programs. Watches single files or
+ * whole directories on background thread. Events are debounced: listener
+ * is called once after file stops changing for DEBOUNCE milliseconds, so
+ * files written in many steps or replaced by rename are reported once.
+ */
+public class FileWatcher implements Runnable
+{
+    /**
+     * Receives changed files, called on watcher thread.
+     */
+    public interface Listener
+    {
+        public void changed(File file);
+    }
+    
+    public static final long DEBOUNCE = 100;
+    
+    private final WatchService service;
+    
+    // watched files and directories, guarded by this
+    private final Map<Path, Listener> files = new HashMap<>();
+    private final Map<Path, Listener> directories = new HashMap<>();
+    private final Set<Path> registered = new HashSet<>();
+    
+    // files waiting for end of changes and their deadlines, watcher thread only
+    private final Map<Path, Long> pending = new HashMap<>();
+    
+    
+    public FileWatcher() throws IOException
+    {
+        service = FileSystems.getDefault().newWatchService();
+        
+        Thread thread = new Thread(this, "File watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Calls listener when file is changed. Replaces earlier listener
+     * of the same file.
+     */
+    public synchronized void watch(File file, Listener listener) throws IOException
+    {
+        Path path = toPath(file);
+        
+        register(path.getParent());
+        files.put(path, listener);
+    }
+    
+    /**
+     * Calls listener when any file in directory is changed or created.
+     */
+    public synchronized void watchDirectory(File directory, Listener listener)
+            throws IOException
+    {
+        Path path = toPath(directory);
+        
+        register(path);
+        directories.put(path, listener);
+    }
+    
+    public synchronized void unwatch(File file)
+    {
+        Path path = toPath(file);
+        
+        files.remove(path);
+        directories.remove(path);
+    }
+    
+    /**
+     * Stops watching all files.
+     */
+    public void close()
+    {
+        try
+        {
+            service.close();
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+    
+    @Override
+    public void run()
+    {
+        try
+        {
+            while(true)
+            {
+                WatchKey key;
+                
+                if(pending.isEmpty())
+                {
+                    key = service.take();
+                }
+                else
+                {
+                    long wait = Long.MAX_VALUE;
+                    
+                    for(long deadline : pending.values())
+                        wait = Math.min(wait, deadline - System.nanoTime());
+                    
+                    key = service.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                }
+                
+                if(key != null)
+                {
+                    collect(key);
+                    key.reset();
+                }
+                
+                fire();
+            }
+        }
+        catch(ClosedWatchServiceException | InterruptedException e)
+        {
+            // watcher was closed
+        }
+    }
+    
+    private void collect(WatchKey key)
+    {
+        Path directory = (Path) key.watchable();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEBOUNCE);
+        
+        for(WatchEvent<?> event : key.pollEvents())
+        {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+            
+            Path path = directory.resolve((Path) event.context());
+            
+            // every new event moves the deadline
+            if(getListener(path) != null)
+                pending.put(path, deadline);
+        }
+    }
+    
+    private void fire()
+    {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+        
+        while(iterator.hasNext())
+        {
+            Map.Entry<Path, Long> entry = iterator.next();
+            
+            if(entry.getValue() - now > 0) continue;
+            
+            iterator.remove();
+            
+            Listener listener = getListener(entry.getKey());
+            
+            if(listener == null) continue;
+            
+            try
+            {
+                listener.changed(entry.getKey().toFile());
+            }
+            catch(RuntimeException e)
+            {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+    
+    private synchronized Listener getListener(Path path)
+    {
+        Listener listener = files.get(path);
+        
+        if(listener == null)
+            listener = directories.get(path.getParent());
+        
+        return listener;
+    }
+    
+    private void register(Path directory) throws IOException
+    {
+        if(registered.contains(directory)) return;
+        
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        registered.add(directory);
+    }
+    
+    private static Path toPath(File file)
+    {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Arrays;
+
+/**
+ * Per-stage timing of render loop frames, kept in ring buffer of the last
+ * CAPACITY frames. Render thread is the only writer; readers take snapshots
+ * without locking, dropping samples overwritten while copying.
+ */
+public class FrameStats implements FrameStatsMBean
+{
+    public static final int INPUT = 0;
+    public static final int HEIGHTS = 1;
+    public static final int NORMALS = 2;
+    public static final int LOD = 3;
+    public static final int UPLOAD = 4;
+    public static final int DRAW = 5;
+    public static final int FRAME = 6;
+    
+    private static final String[] NAMES = {
+        "input", "heights", "normals", "lod", "upload", "draw", "frame"
+    };
+    
+    public static final int CAPACITY = 1024;
+    
+    // samples in nanoseconds, frame i at row (i % CAPACITY)
+    private final long[] samples = new long[CAPACITY * NAMES.length];
+    private final long[] current = new long[NAMES.length];
+    private volatile long frames = 0;
+    
+    
+    /**
+     * Adds time spent in given stage during current frame.
+     */
+    public void add(int stage, long nanos)
+    {
+        current[stage] += nanos;
+    }
+    
+    /**
+     * Stores current frame in ring buffer and starts next one.
+     */
+    public void endFrame()
+    {
+        int row = (int) (frames % CAPACITY) * NAMES.length;
+        
+        System.arraycopy(current, 0, samples, row, NAMES.length);
+        Arrays.fill(current, 0);
+        
+        // volatile write publishes the row to readers
+        frames = frames + 1;
+    }
+    
+    @Override
+    public long getFrameCount()
+    {
+        return frames;
+    }
+    
+    @Override
+    public String[] getStageNames()
+    {
+        return NAMES.clone();
+    }
+    
+    @Override
+    public double[] getPercentiles(double percentile)
+    {
+        long[][] snapshot = snapshot();
+        double[] result = new double[NAMES.length];
+        
+        for(int stage=0; stage<NAMES.length; stage++)
+            result[stage] = percentile(snapshot[stage], percentile);
+        
+        return result;
+    }
+    
+    @Override
+    public String getReport()
+    {
+        long[][] snapshot = snapshot();
+        StringBuilder builder = new StringBuilder();
+        
+        builder.append(String.format("%d frames (last %d), ms:%n",
+                frames, snapshot[0].length));
+        builder.append(String.format("%-8s %8s %8s %8s %8s%n",
+                "stage", "p50", "p95", "p99", "max"));
+        
+        for(int stage=0; stage<NAMES.length; stage++)
+        {
+            long[] values = snapshot[stage];
+            
+            builder.append(String.format("%-8s %8.3f %8.3f %8.3f %8.3f%n",
+                    NAMES[stage], percentile(values, 50),
+                    percentile(values, 95), percentile(values, 99),
+                    percentile(values, 100)));
+        }
+        
+        return builder.toString();
+    }
+    
+    /**
+     * Copies stored samples, one sorted array per stage.
+     */
+    private long[][] snapshot()
+    {
+        long end = frames;
+        long start = Math.max(end - CAPACITY, 0);
+        
+        long[] copy = samples.clone();
+        
+        // rows reused by frames written during copy (including the one
+        // in progress) may be torn, skip them
+        long written = frames - end;
+        start = Math.min(Math.max(start, end - CAPACITY + written + 1), end);
+        
+        int count = (int) (end - start);
+        long[][] result = new long[NAMES.length][count];
+        
+        for(int i=0; i<count; i++)
+        {
+            int row = (int) ((start + i) % CAPACITY) * NAMES.length;
+            
+            for(int stage=0; stage<NAMES.length; stage++)
+                result[stage][i] = copy[row + stage];
+        }
+        
+        for(long[] values : result)
+            Arrays.sort(values);
+        
+        return result;
+    }
+    
+    private static double percentile(long[] sorted, double percentile)
+    {
+        if(sorted.length == 0) return 0.0;
+        
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        index = Math.max(0, Math.min(index, sorted.length - 1));
+        
+        return sorted[index] / 1.0e6;
+    }
+}
@@ -0,0 +1,21 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+/**
+ * JMX view of render loop timing.
+ */
+public interface FrameStatsMBean
+{
+    public long getFrameCount();
+    
+    public String[] getStageNames();
+    
+    /**
+     * Returns given percentile (0-100) of each stage time in milliseconds.
+     */
+    public double[] getPercentiles(double percentile);
+    
+    public String getReport();
+}
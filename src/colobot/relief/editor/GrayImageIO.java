@@ -0,0 +1,637 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Streaming codecs for 8-bit PNG and BMP files, the formats of Colobot
+ * reliefs. Rows are decoded straight into sample array and encoded from
+ * it, without BufferedImage. Samples of palette images are gray levels of
+ * their palette entries, same as colors read by ImageIO.
+ *
+ * Readers return null for valid files they do not handle (other bit depths,
+ * color types, compression or interlacing, palettes with colors or fewer
+ * than 256 entries), which are left to ImageIO.
+ */
+public class GrayImageIO
+{
+    private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+    
+    private static final int BMP_SIGNATURE = 0x4D42;      // "BM", little-endian
+    private static final int BMP_HEADER_SIZE = 14 + 40 + 4 * 256;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+    
+    
+    private GrayImageIO()
+    {
+    
+    }
+    
+    /**
+     * Returns true if format (file extension) is handled by this class.
+     */
+    public static boolean isSupported(String format)
+    {
+        return format.equals("png") || format.equals("bmp");
+    }
+    
+    /**
+     * Reads relief from file or returns null if file has to be read by
+     * ImageIO.
+     */
+    public static Heightfield read(File file, ReliefIO.Progress progress)
+            throws IOException
+    {
+        String format = ReliefIO.getExtension(file);
+        
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE)))
+        {
+            if(format.equals("png"))
+                return readPng(input, progress);
+            else if(format.equals("bmp"))
+                return readBmp(input, progress);
+            else
+                return null;
+        }
+    }
+    
+    /**
+     * Writes relief to file in format given by its extension.
+     */
+    public static void write(Heightfield relief, File file,
+            ReliefIO.Progress progress) throws IOException
+    {
+        write(relief, file, ReliefIO.getExtension(file), progress);
+    }
+    
+    public static void write(Heightfield relief, File file, String format,
+            ReliefIO.Progress progress) throws IOException
+    {
+        if(!isSupported(format))
+            throw new IOException("Unsupported image format: " + format);
+        
+        try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE)))
+        {
+            if(format.equals("png"))
+                writePng(relief, output, progress);
+            else
+                writeBmp(relief, output, progress);
+        }
+    }
+    
+    private static Heightfield readPng(DataInputStream input,
+            ReliefIO.Progress progress) throws IOException
+    {
+        if(input.readLong() != PNG_SIGNATURE)
+            throw new IOException("Invalid PNG file (bad signature)");
+        
+        if(input.readInt() != 13 || input.readInt() != IHDR)
+            throw new IOException("Invalid PNG file (no header)");
+        
+        int width = input.readInt();
+        int height = input.readInt();
+        int depth = input.readUnsignedByte();
+        int colorType = input.readUnsignedByte();
+        int compression = input.readUnsignedByte();
+        int filter = input.readUnsignedByte();
+        int interlace = input.readUnsignedByte();
+        input.readInt();    // CRC
+        
+        // 8-bit gray or palette, not interlaced
+        if(depth != 8 || (colorType != 0 && colorType != 3)
+                || compression != 0 || filter != 0 || interlace != 0)
+            return null;
+        
+        byte[] data = allocate(width, height);
+        byte[] previous = new byte[width + 1];
+        byte[] current = new byte[width + 1];
+        byte[] chunk = new byte[BUFFER_SIZE];
+        byte[] levels = null;
+        int position = 0;
+        int row = 0;
+        
+        Inflater inflater = new Inflater();
+        
+        try
+        {
+            while(true)
+            {
+                int length = input.readInt();
+                int type = input.readInt();
+                
+                if(length < 0)
+                    throw new IOException("Invalid PNG file (bad chunk)");
+                
+                if(type == IEND) break;
+                
+                if(type == PLTE && colorType == 3)
+                {
+                    if(length % 3 != 0 || length > 3 * 256)
+                        throw new IOException("Invalid PNG file (bad palette)");
+                    
+                    input.readFully(chunk, 0, length);
+                    input.readInt();    // CRC
+                    
+                    levels = getGrayLevels(chunk, length / 3, 3);
+                    
+                    if(levels == null) return null;
+                    
+                    continue;
+                }
+                
+                // palette has to come before image data
+                if(type == IDAT && colorType == 3 && levels == null)
+                    return null;
+                
+                if(type != IDAT || row == height)
+                {
+                    skip(input, length + 4L);
+                    continue;
+                }
+                
+                if(chunk.length < length)
+                    chunk = new byte[length];
+                
+                input.readFully(chunk, 0, length);
+                input.readInt();    // CRC
+                
+                inflater.setInput(chunk, 0, length);
+                
+                // rows are completed as compressed data arrives
+                while(row < height && !inflater.finished())
+                {
+                    int count = inflater.inflate(current, position,
+                            current.length - position);
+                    
+                    if(count == 0)
+                    {
+                        if(inflater.needsInput()) break;
+                        if(inflater.needsDictionary())
+                            throw new IOException("Invalid PNG file (bad data)");
+                    }
+                    
+                    position += count;
+                    
+                    if(position < current.length) continue;
+                    
+                    unfilter(current, previous);
+                    System.arraycopy(current, 1, data, row * width, width);
+                    
+                    if(levels != null)
+                        map(data, row * width, width, levels);
+                    
+                    byte[] swap = previous;
+                    previous = current;
+                    current = swap;
+                    position = 0;
+                    row++;
+                    
+                    report(progress, row, height);
+                }
+            }
+        }
+        catch(DataFormatException e)
+        {
+            throw new IOException("Invalid PNG file (bad data)", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        
+        if(row < height)
+            throw new IOException("Invalid PNG file (truncated)");
+        
+        return new Heightfield(width, height, data);
+    }
+    
+    private static void writePng(Heightfield relief, DataOutputStream output,
+            ReliefIO.Progress progress) throws IOException
+    {
+        int width = relief.getWidth();
+        int height = relief.getHeight();
+        
+        output.writeLong(PNG_SIGNATURE);
+        
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height);
+        header.put((byte) 8).put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(output, IHDR, header.array(), 13);
+        
+        ByteBuffer samples = relief.getBuffer();
+        byte[] previous = new byte[width + 1];
+        byte[] current = new byte[width + 1];
+        byte[] filtered = new byte[width + 1];
+        byte[] best = new byte[width + 1];
+        
+        Deflater deflater = new Deflater(DEFLATE_LEVEL);
+        
+        try
+        {
+            DeflaterOutputStream stream = new DeflaterOutputStream(
+                    new ChunkOutputStream(output), deflater, BUFFER_SIZE);
+            
+            for(int j=0; j<height; j++)
+            {
+                samples.get(current, 1, width);
+                
+                // filter with smallest sum of absolute differences, as
+                // recommended by PNG specification
+                long bestSum = Long.MAX_VALUE;
+                
+                for(int type=0; type<=4; type++)
+                {
+                    long sum = filter(type, current, previous, filtered);
+                    
+                    if(sum < bestSum)
+                    {
+                        bestSum = sum;
+                        
+                        byte[] swap = best;
+                        best = filtered;
+                        filtered = swap;
+                    }
+                }
+                
+                stream.write(best, 0, width + 1);
+                
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+                
+                report(progress, j + 1, height);
+            }
+            
+            // ends compressed stream and writes last data chunk
+            stream.close();
+        }
+        finally
+        {
+            deflater.end();
+        }
+        
+        writeChunk(output, IEND, new byte[0], 0);
+    }
+    
+    private static Heightfield readBmp(DataInputStream input,
+            ReliefIO.Progress progress) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(14 + 40).order(ByteOrder.LITTLE_ENDIAN);
+        input.readFully(header.array(), 0, 14 + 4);
+        
+        if((header.getShort(0) & 0xFFFF) != BMP_SIGNATURE)
+            throw new IOException("Invalid BMP file (bad signature)");
+        
+        int offset = header.getInt(10);
+        int infoSize = header.getInt(14);
+        
+        // only Windows info headers, OS/2 files are left to ImageIO
+        if(infoSize < 40)
+            return null;
+        
+        input.readFully(header.array(), 18, 36);
+        
+        int width = header.getInt(18);
+        int height = header.getInt(22);
+        int bits = header.getShort(28);
+        int compression = header.getInt(30);
+        int colors = header.getInt(46);
+        
+        if(bits != 8 || compression != 0)
+            return null;
+        
+        // negative height marks rows stored from top to bottom
+        boolean topDown = height < 0;
+        height = Math.abs(height);
+        
+        // zero means full palette
+        if(colors == 0)
+            colors = 256;
+        
+        if(colors < 0 || colors > 256 || offset < 14 + infoSize + 4 * colors)
+            throw new IOException("Invalid BMP file (bad offset)");
+        
+        // color table follows info header, entries are blue, green, red
+        // and unused byte
+        byte[] palette = new byte[4 * colors];
+        skip(input, infoSize - 40);
+        input.readFully(palette);
+        
+        byte[] levels = getGrayLevels(palette, colors, 4);
+        
+        if(levels == null)
+            return null;
+        
+        skip(input, offset - 14 - infoSize - 4 * colors);
+        
+        byte[] data = allocate(width, height);
+        byte[] row = new byte[(width + 3) & ~3];
+        
+        for(int r=0; r<height; r++)
+        {
+            input.readFully(row);
+            
+            int j = topDown ? r : height - 1 - r;
+            System.arraycopy(row, 0, data, j * width, width);
+            map(data, j * width, width, levels);
+            
+            report(progress, r + 1, height);
+        }
+        
+        return new Heightfield(width, height, data);
+    }
+    
+    private static void writeBmp(Heightfield relief, DataOutputStream output,
+            ReliefIO.Progress progress) throws IOException
+    {
+        int width = relief.getWidth();
+        int height = relief.getHeight();
+        int stride = (width + 3) & ~3;
+        
+        ByteBuffer header = ByteBuffer.allocate(BMP_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        
+        // file header
+        header.putShort((short) BMP_SIGNATURE);
+        header.putInt(BMP_HEADER_SIZE + stride * height);
+        header.putInt(0);
+        header.putInt(BMP_HEADER_SIZE);
+        
+        // info header
+        header.putInt(40);
+        header.putInt(width).putInt(height);
+        header.putShort((short) 1).putShort((short) 8);
+        header.putInt(0).putInt(stride * height);
+        header.putInt(2835).putInt(2835);       // 72 DPI
+        header.putInt(256).putInt(256);
+        
+        // gray palette
+        for(int i=0; i<256; i++)
+            header.putInt(i << 16 | i << 8 | i);
+        
+        output.write(header.array());
+        
+        ByteBuffer samples = relief.getBuffer();
+        byte[] row = new byte[stride];
+        
+        // rows are stored from bottom to top
+        for(int j=height-1; j>=0; j--)
+        {
+            samples.position(j * width);
+            samples.get(row, 0, width);
+            output.write(row);
+            
+            report(progress, height - j, height);
+        }
+    }
+    
+    /**
+     * Reverses PNG filter of row, first byte is filter type.
+     */
+    static void unfilter(byte[] row, byte[] previous) throws IOException
+    {
+        int length = row.length;
+        
+        switch(row[0])
+        {
+            case 0:
+                break;
+            case 1:
+                for(int i=2; i<length; i++)
+                    row[i] += row[i-1];
+                break;
+            case 2:
+                for(int i=1; i<length; i++)
+                    row[i] += previous[i];
+                break;
+            case 3:
+                row[1] += (previous[1] & 0xFF) >> 1;
+                
+                for(int i=2; i<length; i++)
+                    row[i] += ((row[i-1] & 0xFF) + (previous[i] & 0xFF)) >> 1;
+                break;
+            case 4:
+                row[1] += previous[1];
+                
+                for(int i=2; i<length; i++)
+                    row[i] += paeth(row[i-1] & 0xFF, previous[i] & 0xFF,
+                            previous[i-1] & 0xFF);
+                break;
+            default:
+                throw new IOException("Invalid PNG file (bad filter)");
+        }
+    }
+    
+    /**
+     * Applies PNG filter to row (first byte is unused) and returns sum of
+     * absolute values of filtered bytes.
+     */
+    static long filter(int type, byte[] row, byte[] previous, byte[] result)
+    {
+        result[0] = (byte) type;
+        long sum = 0;
+        
+        for(int i=1; i<row.length; i++)
+        {
+            int x = row[i] & 0xFF;
+            int a = i > 1 ? row[i-1] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i > 1 ? previous[i-1] & 0xFF : 0;
+            int predictor;
+            
+            switch(type)
+            {
+                case 1: predictor = a; break;
+                case 2: predictor = b; break;
+                case 3: predictor = (a + b) >> 1; break;
+                case 4: predictor = paeth(a, b, c); break;
+                default: predictor = 0; break;
+            }
+            
+            byte value = (byte) (x - predictor);
+            result[i] = value;
+            sum += Math.abs(value);
+        }
+        
+        return sum;
+    }
+    
+    /**
+     * Returns gray level of every palette index or null if palette has
+     * colors or fewer than 256 entries. Each entry starts with three color
+     * bytes, followed by stride - 3 unused bytes.
+     */
+    private static byte[] getGrayLevels(byte[] palette, int count, int stride)
+    {
+        if(count != 256)
+            return null;
+        
+        byte[] levels = new byte[256];
+        
+        for(int i=0; i<256; i++)
+        {
+            byte c = palette[i * stride];
+            
+            if(palette[i * stride + 1] != c || palette[i * stride + 2] != c)
+                return null;
+            
+            levels[i] = c;
+        }
+        
+        return levels;
+    }
+    
+    private static void map(byte[] data, int offset, int length, byte[] levels)
+    {
+        for(int i=offset; i<offset+length; i++)
+            data[i] = levels[data[i] & 0xFF];
+    }
+    
+    private static int paeth(int a, int b, int c)
+    {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        
+        if(pa <= pb && pa <= pc) return a;
+        if(pb <= pc) return b;
+        return c;
+    }
+    
+    private static byte[] allocate(int width, int height) throws IOException
+    {
+        if(width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE)
+            throw new IOException("Invalid relief size");
+        
+        return new byte[width * height];
+    }
+    
+    private static void report(ReliefIO.Progress progress, int rows, int height)
+    {
+        if(progress == null) return;
+        
+        ReliefIO.checkCancelled(progress);
+        
+        if((rows & 63) == 0 || rows == height)
+            progress.update((float) rows / height);
+    }
+    
+    private static void skip(InputStream input, long count) throws IOException
+    {
+        while(count > 0)
+        {
+            long skipped = input.skip(count);
+            
+            if(skipped <= 0)
+            {
+                if(input.read() < 0)
+                    throw new IOException("Unexpected end of file");
+                
+                skipped = 1;
+            }
+            
+            count -= skipped;
+        }
+    }
+    
+    private static void writeChunk(DataOutputStream output, int type,
+            byte[] data, int length) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(type >>> 24);
+        crc.update(type >>> 16);
+        crc.update(type >>> 8);
+        crc.update(type);
+        crc.update(data, 0, length);
+        
+        output.writeInt(length);
+        output.writeInt(type);
+        output.write(data, 0, length);
+        output.writeInt((int) crc.getValue());
+    }
+    
+    /**
+     * Splits compressed data into IDAT chunks.
+     */
+    private static class ChunkOutputStream extends OutputStream
+    {
+        private final DataOutputStream output;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int size = 0;
+        
+        
+        public ChunkOutputStream(DataOutputStream output)
+        {
+            this.output = output;
+        }
+        
+        @Override
+        public void write(int b) throws IOException
+        {
+            if(size == buffer.length)
+                flushChunk();
+            
+            buffer[size++] = (byte) b;
+        }
+        
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException
+        {
+            while(length > 0)
+            {
+                if(size == buffer.length)
+                    flushChunk();
+                
+                int count = Math.min(length, buffer.length - size);
+                System.arraycopy(b, offset, buffer, size, count);
+                
+                size += count;
+                offset += count;
+                length -= count;
+            }
+        }
+        
+        /**
+         * Writes remaining data, underlying stream is left open.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            if(size > 0)
+                flushChunk();
+        }
+        
+        private void flushChunk() throws IOException
+        {
+            writeChunk(output, IDAT, buffer, size);
+            size = 0;
+        }
+    }
+}
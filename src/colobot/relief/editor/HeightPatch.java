@@ -0,0 +1,130 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+/**
+ * Immutable copy of rectangular part of relief, used to pass edits from
+ * Swing thread to render thread without sharing live heightfield.
+ * 
+ * Reset patch covers whole relief and means relief was replaced.
+ * Reset patch without data means there is no relief (flat terrain).
+ */
+public class HeightPatch
+{
+    private final int x, y;
+    private final int width, height;
+    private final int reliefWidth, reliefHeight;
+    private final boolean reset;
+    private final byte[] data;
+    
+    
+    private HeightPatch(int x, int y, int width, int height,
+            int reliefWidth, int reliefHeight, boolean reset, byte[] data)
+    {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.reliefWidth = reliefWidth;
+        this.reliefHeight = reliefHeight;
+        this.reset = reset;
+        this.data = data;
+    }
+    
+    public int getX()
+    {
+        return x;
+    }
+    
+    public int getY()
+    {
+        return y;
+    }
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    public int getReliefWidth()
+    {
+        return reliefWidth;
+    }
+    
+    public int getReliefHeight()
+    {
+        return reliefHeight;
+    }
+    
+    public boolean isReset()
+    {
+        return reset;
+    }
+    
+    public boolean isEmpty()
+    {
+        return data == null;
+    }
+    
+    /**
+     * Returns sample at given relief coordinates (inside patch).
+     */
+    public int get(int x, int y)
+    {
+        return 0xFF & data[(x - this.x) + width * (y - this.y)];
+    }
+    
+    /**
+     * Copies given rectangle (inclusive) of relief.
+     */
+    public static HeightPatch capture(Heightfield relief,
+            int minX, int minY, int maxX, int maxY)
+    {
+        return capture(relief, minX, minY, maxX, maxY, false);
+    }
+    
+    /**
+     * Copies whole relief, marking it as replaced.
+     */
+    public static HeightPatch reset(Heightfield relief)
+    {
+        return capture(relief, 0, 0,
+                relief.getWidth() - 1, relief.getHeight() - 1, true);
+    }
+    
+    /**
+     * Creates reset patch for missing relief of given size.
+     */
+    public static HeightPatch empty(int width, int height)
+    {
+        return new HeightPatch(0, 0, width, height, width, height, true, null);
+    }
+    
+    private static HeightPatch capture(Heightfield relief,
+            int minX, int minY, int maxX, int maxY, boolean reset)
+    {
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, relief.getWidth() - 1);
+        maxY = Math.min(maxY, relief.getHeight() - 1);
+        
+        int width = maxX - minX + 1;
+        int height = maxY - minY + 1;
+        byte[] data = new byte[width * height];
+        
+        for(int j=0; j<height; j++)
+        {
+            for(int i=0; i<width; i++)
+                data[i + width * j] = (byte) relief.get(minX + i, minY + j);
+        }
+        
+        return new HeightPatch(minX, minY, width, height,
+                relief.getWidth(), relief.getHeight(), reset, data);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+
+/**
+ * Relief samples stored row by row in a flat byte buffer. Values are 8-bit
+ * gray levels exactly as in Colobot relief images (0 is the highest point).
+ * Buffer is either heap array or memory-mapped file (see MappedHeightfield).
+ */
+public class Heightfield
+{
+    private final int width;
+    private final int height;
+    private final ByteBuffer data;
+    
+    
+    public Heightfield(int width, int height)
+    {
+        this(width, height, new byte[width * height]);
+    }
+    
+    public Heightfield(int width, int height, byte[] data)
+    {
+        this(width, height, ByteBuffer.wrap(data));
+    }
+    
+    protected Heightfield(int width, int height, ByteBuffer data)
+    {
+        if(width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid relief size");
+        
+        if(data.capacity() != width * height)
+            throw new IllegalArgumentException("Invalid relief data length");
+        
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    /**
+     * Returns independent view of samples with position at first sample.
+     */
+    public ByteBuffer getBuffer()
+    {
+        return (ByteBuffer) data.duplicate().clear();
+    }
+    
+    public boolean contains(int x, int y)
+    {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+    
+    public int getIndex(int x, int y)
+    {
+        return x + width * y;
+    }
+    
+    public int get(int index)
+    {
+        return 0xFF & data.get(index);
+    }
+    
+    public int get(int x, int y)
+    {
+        return 0xFF & data.get(x + width * y);
+    }
+    
+    public void set(int index, int value)
+    {
+        data.put(index, (byte) value);
+    }
+    
+    public void set(int x, int y, int value)
+    {
+        data.put(x + width * y, (byte) value);
+    }
+    
+    /**
+     * Creates independent copy of this heightfield in memory.
+     */
+    public Heightfield copy()
+    {
+        Heightfield result = new Heightfield(width, height);
+        result.data.put(getBuffer());
+        result.data.clear();
+        
+        return result;
+    }
+    
+    /**
+     * Creates gray image that shares samples with this heightfield,
+     * so changes are visible in image without copying.
+     */
+    public BufferedImage toImage()
+    {
+        DataBuffer buffer;
+        
+        if(data.hasArray())
+            buffer = new DataBufferByte(data.array(), data.capacity());
+        else
+            buffer = new ByteBufferDataBuffer(data);
+        
+        WritableRaster raster = Raster.createInterleavedRaster(buffer,
+                width, height, width, 1, new int[] { 0 }, null);
+        ComponentColorModel model = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                ComponentColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
+        
+        return new BufferedImage(model, raster, false, null);
+    }
+    
+    public static Heightfield fromImage(BufferedImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        
+        Heightfield result = new Heightfield(width, height);
+        Raster raster = image.getRaster();
+        ColorModel model = image.getColorModel();
+        
+        // single band gray images hold gray levels directly,
+        // indexed images go through their palette
+        if(model instanceof ComponentColorModel
+                && model.getColorSpace().getType() == ColorSpace.TYPE_GRAY
+                && raster.getNumBands() == 1
+                && raster.getTransferType() == DataBuffer.TYPE_BYTE)
+        {
+            int[] row = new int[width];
+            
+            for(int j=0; j<height; j++)
+            {
+                raster.getSamples(0, j, width, 1, 0, row);
+                
+                for(int i=0; i<width; i++)
+                    result.set(i, j, row[i]);
+            }
+        }
+        else
+        {
+            int[] row = new int[width];
+            
+            for(int j=0; j<height; j++)
+            {
+                image.getRGB(0, j, width, 1, row, 0, width);
+                
+                for(int i=0; i<width; i++)
+                    result.set(i, j, row[i]);
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Image data buffer reading samples directly from direct or mapped buffer.
+     */
+    private static class ByteBufferDataBuffer extends DataBuffer
+    {
+        private final ByteBuffer data;
+        
+        
+        public ByteBufferDataBuffer(ByteBuffer data)
+        {
+            super(DataBuffer.TYPE_BYTE, data.capacity());
+            
+            this.data = data;
+        }
+        
+        @Override
+        public int getElem(int bank, int i)
+        {
+            return 0xFF & data.get(i);
+        }
+        
+        @Override
+        public void setElem(int bank, int i, int val)
+        {
+            data.put(i, (byte) val);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds triangle indices for chunk vertex grid at given level of detail.
+ * 
+ * Chunk is drawn with every step-th vertex. To avoid cracks next to coarser
+ * chunk, vertices on that edge are snapped to the coarser step, so the edge
+ * matches neighbour exactly. Triangles collapsed by snapping are skipped
+ * (or left degenerate in strips).
+ * 
+ * Indices can be ordered in three ways, see {@link Mode}. Blocked orders
+ * walk the chunk in bands of BLOCK_SIZE quads, so vertices shared with
+ * previous column are still in post-transform vertex cache.
+ */
+public class LodIndexBuilder
+{
+    /**
+     * Ordering of generated indices.
+     */
+    public enum Mode
+    {
+        /** triangle list, whole columns of quads one after another */
+        LIST,
+        /** triangle list, columns of quads split into blocks */
+        BLOCKS,
+        /** triangle strip over blocks, joined by degenerate triangles */
+        STRIP;
+        
+        public boolean isStrip()
+        {
+            return this == STRIP;
+        }
+    }
+    
+    // quads per block; two block edges of 7 vertices fit in 16 entry cache
+    public static final int BLOCK_SIZE = 6;
+    
+    
+    private LodIndexBuilder()
+    {
+        
+    }
+    
+    /**
+     * Builds full detail indices.
+     */
+    public static ShortBuffer build(int columns, int rows, Mode mode)
+    {
+        return build(columns, rows, 1, 1, 1, 1, 1, mode);
+    }
+    
+    /**
+     * Builds indices for chunk of columns x rows cells.
+     * 
+     * @param step distance between used vertices, must divide columns and rows
+     * @param left step on edge x = 0
+     * @param right step on edge x = columns
+     * @param top step on edge y = 0
+     * @param bottom step on edge y = rows
+     * @param mode ordering of indices
+     */
+    public static ShortBuffer build(int columns, int rows, int step,
+            int left, int right, int top, int bottom, Mode mode)
+    {
+        if(columns % step != 0 || rows % step != 0)
+            throw new IllegalArgumentException("Step does not divide chunk");
+        
+        int[] edges = new int[] { left, right, top, bottom };
+        
+        if(mode.isStrip())
+            return buildStrip(columns, rows, step, edges);
+        
+        int quads = (columns / step) * (rows / step);
+        
+        ShortBuffer elements = ByteBuffer.allocateDirect(2 * 6 * quads)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        
+        // plain list is one block as high as the chunk
+        int block = mode == Mode.BLOCKS ? BLOCK_SIZE * step : rows;
+        
+        for(int start=0; start<rows; start+=block)
+        {
+            int end = Math.min(start + block, rows);
+            
+            for(int i=0; i<columns; i+=step)
+            {
+                for(int j=start; j<end; j+=step)
+                {
+                    int v00 = getVertexIndex(columns, rows, edges, i     , j     );
+                    int v01 = getVertexIndex(columns, rows, edges, i     , j+step);
+                    int v11 = getVertexIndex(columns, rows, edges, i+step, j+step);
+                    int v10 = getVertexIndex(columns, rows, edges, i+step, j     );
+                    
+                    addTriangle(elements, v00, v01, v11);
+                    addTriangle(elements, v11, v10, v00);
+                }
+            }
+        }
+        
+        elements.flip();
+        
+        return elements;
+    }
+    
+    /**
+     * Counts triangles drawn from indices, not counting degenerate ones.
+     */
+    public static int getTriangleCount(ShortBuffer elements, Mode mode)
+    {
+        if(!mode.isStrip())
+            return elements.remaining() / 3;
+        
+        int count = 0;
+        
+        for(int i=elements.position(); i+2<elements.limit(); i++)
+        {
+            int a = elements.get(i);
+            int b = elements.get(i+1);
+            int c = elements.get(i+2);
+            
+            if(a != b && b != c && c != a) count++;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Returns average cache miss ratio: number of vertices transformed per
+     * triangle with FIFO post-transform cache of given size. 0.5 is ideal
+     * for large grids, 3.0 means no reuse at all.
+     */
+    public static float getAcmr(ShortBuffer elements, Mode mode, int cacheSize)
+    {
+        int[] cache = new int[cacheSize];
+        int head = 0;
+        int misses = 0;
+        
+        Arrays.fill(cache, -1);
+        
+        for(int i=elements.position(); i<elements.limit(); i++)
+        {
+            int vertex = elements.get(i) & 0xFFFF;
+            boolean hit = false;
+            
+            for(int k=0; k<cacheSize; k++)
+            {
+                if(cache[k] == vertex)
+                {
+                    hit = true;
+                    break;
+                }
+            }
+            
+            if(!hit)
+            {
+                cache[head] = vertex;
+                head = (head + 1) % cacheSize;
+                misses++;
+            }
+        }
+        
+        int triangles = getTriangleCount(elements, mode);
+        
+        return triangles == 0 ? 0.0f : (float) misses / triangles;
+    }
+    
+    private static ShortBuffer buildStrip(int columns, int rows, int step,
+            int[] edges)
+    {
+        int block = BLOCK_SIZE * step;
+        int bands = (rows + block - 1) / block * (columns / step);
+        
+        // band of n quads has 2n + 2 vertices, joining bands takes two more
+        int count = 2 * ((columns / step) * (rows / step) + bands)
+                + 2 * (bands - 1);
+        
+        ShortBuffer elements = ByteBuffer.allocateDirect(2 * count)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        
+        for(int start=0; start<rows; start+=block)
+        {
+            int end = Math.min(start + block, rows);
+            
+            for(int i=0; i<columns; i+=step)
+            {
+                // repeating last and first vertex gives degenerate triangles
+                if(elements.position() > 0)
+                {
+                    elements.put(elements.get(elements.position() - 1));
+                    elements.put((short) getVertexIndex(columns, rows, edges,
+                            i+step, start));
+                }
+                
+                // band has even number of vertices, so winding is preserved
+                for(int j=start; j<=end; j+=step)
+                {
+                    elements.put((short) getVertexIndex(columns, rows, edges,
+                            i+step, j));
+                    elements.put((short) getVertexIndex(columns, rows, edges,
+                            i, j));
+                }
+            }
+        }
+        
+        elements.flip();
+        
+        return elements;
+    }
+    
+    private static void addTriangle(ShortBuffer elements, int a, int b, int c)
+    {
+        if(a == b || b == c || c == a) return;
+        
+        elements.put((short) a);
+        elements.put((short) b);
+        elements.put((short) c);
+    }
+    
+    private static int getVertexIndex(int columns, int rows, int[] edges,
+            int x, int y)
+    {
+        // snap edge vertices to neighbour's step
+        if(x == 0)
+            y = y / edges[0] * edges[0];
+        else if(x == columns)
+            y = y / edges[1] * edges[1];
+        
+        if(y == 0)
+            x = x / edges[2] * edges[2];
+        else if(y == rows)
+            x = x / edges[3] * edges[3];
+        
+        return x + (columns + 1) * y;
+    }
+}
@@ -4,17 +4,28 @@
 package colobot.relief.editor;
 
 import java.io.File;
+import java.util.Arrays;
 import org.lwjgl.LWJGLUtil;
 
 public class MainClass
 {
     public static void main(String[] args)
     {
+        // headless processing, no display needed
+        if(args.length == 2 && args[0].equals("--batch"))
+        {
+            System.setProperty("java.awt.headless", "true");
+            
+            System.exit(BatchProcessor.run(new File(args[1])));
+        }
+        
         System.setProperty("org.lwjgl.librarypath",
                 System.getProperty("user.dir") + File.separator + "native"
                 + File.separator + LWJGLUtil.getPlatformName());
         
-        new Editor().run();
+        Editor editor = new Editor();
+        editor.setStatsLogging(Arrays.asList(args).contains("--stats"));
+        editor.run();
         
         System.exit(0);
     }
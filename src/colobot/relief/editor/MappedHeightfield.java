@@ -0,0 +1,187 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Heightfield backed by memory-mapped raw relief file. Edits go straight
+ * to the file mapping and saving only flushes it to disk.
+ * 
+ * File format (big-endian): magic "CRHF", width, height and bits per
+ * sample as 32-bit integers, followed by samples row by row.
+ * 
+ * Only 8-bit samples are supported, like in Colobot reliefs. Files with
+ * 16-bit samples are rejected with a message asking to convert them.
+ */
+public class MappedHeightfield extends Heightfield
+{
+    public static final String EXTENSION = "crhf";
+    
+    private static final int MAGIC = 0x43524846;    // "CRHF"
+    private static final int HEADER_SIZE = 16;
+    private static final int BITS = 8;
+    private static final int WRITE_BLOCK = 1 << 20;
+    
+    private final File file;
+    private final MappedByteBuffer buffer;
+    
+    
+    private MappedHeightfield(File file, int width, int height,
+            MappedByteBuffer buffer)
+    {
+        super(width, height, buffer);
+        
+        this.file = file;
+        this.buffer = buffer;
+    }
+    
+    public File getFile()
+    {
+        return file;
+    }
+    
+    /**
+     * Writes all pending changes to the file.
+     */
+    public void flush()
+    {
+        buffer.force();
+    }
+    
+    /**
+     * Copies samples to memory. Samples past end of file truncated by
+     * another program are left zero, reading them would fault.
+     */
+    public Heightfield copyAvailable()
+    {
+        long available = file.length() - HEADER_SIZE;
+        
+        ByteBuffer source = getBuffer();
+        source.limit((int) Math.max(0, Math.min(available, source.capacity())));
+        
+        Heightfield result = new Heightfield(getWidth(), getHeight());
+        result.getBuffer().put(source);
+        
+        return result;
+    }
+    
+    public static boolean isRawFile(File file)
+    {
+        return file.getName().toLowerCase().endsWith("." + EXTENSION);
+    }
+    
+    public static MappedHeightfield open(File file) throws IOException
+    {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            FileChannel channel = raf.getChannel();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            
+            while(header.hasRemaining())
+            {
+                if(channel.read(header) < 0)
+                    throw new IOException("Invalid relief file (too short)");
+            }
+            
+            header.flip();
+            
+            if(header.getInt() != MAGIC)
+                throw new IOException("Invalid relief file (bad header)");
+            
+            int width = header.getInt();
+            int height = header.getInt();
+            int bits = header.getInt();
+            
+            if(bits == 16)
+                throw new IOException(file.getName() + " has 16-bit samples."
+                        + " Only 8-bit raw reliefs can be opened,"
+                        + " convert it to 8 bits first.");
+            
+            if(bits != BITS)
+                throw new IOException("Invalid relief file (bad sample depth)");
+            
+            if(width < 2 || height < 2)
+                throw new IOException("Invalid relief size");
+            
+            long size = (long) width * height;
+            
+            // buffers and mappings are indexed by int
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Relief too large");
+            
+            if(channel.size() < HEADER_SIZE + size)
+                throw new IOException("Invalid relief file (too short)");
+            
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE, size);
+            
+            return new MappedHeightfield(file, width, height, buffer);
+        }
+    }
+    
+    /**
+     * Returns true if relief is mapped from given file.
+     */
+    public static boolean isMapped(Heightfield relief, File file)
+            throws IOException
+    {
+        if(!(relief instanceof MappedHeightfield)) return false;
+        
+        File mapped = ((MappedHeightfield) relief).file;
+        
+        return mapped.getCanonicalFile().equals(file.getCanonicalFile());
+    }
+    
+    /**
+     * Writes heightfield to raw file, replacing its contents. Use
+     * {@link ReliefIO#write} to save relief safely and map the result.
+     */
+    public static void write(File file, Heightfield source,
+            ReliefIO.Progress progress) throws IOException
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(width).putInt(height).putInt(BITS);
+            header.flip();
+            
+            while(header.hasRemaining())
+                channel.write(header);
+            
+            ByteBuffer data = source.getBuffer();
+            int size = data.remaining();
+            
+            // written in blocks to report progress and allow cancelling
+            while(data.hasRemaining())
+            {
+                ReliefIO.checkCancelled(progress);
+                
+                data.limit(Math.min(data.position() + WRITE_BLOCK, size));
+                
+                while(data.hasRemaining())
+                    channel.write(data);
+                
+                data.limit(size);
+                
+                if(progress != null)
+                    progress.update((float) data.position() / size);
+            }
+            
+            channel.force(true);
+        }
+    }
+}
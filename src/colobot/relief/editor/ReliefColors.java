@@ -0,0 +1,204 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+/**
+ * Colors of relief cells in 2D view. Every mode is a 256 entry lookup table
+ * indexed by sample value (or by slope), so rendering is one table read per
+ * cell written straight into RGB pixel array.
+ *
+ * Contours darken cells whose height band differs from right or lower
+ * neighbour, so color of a cell depends on its neighbours; callers have to
+ * render one cell more around changed cells.
+ */
+public class ReliefColors
+{
+    public enum Mode
+    {
+        /** raw sample values */
+        GRAY,
+        /** height tints from lowlands to peaks */
+        HYPSOMETRIC,
+        /** blue depths below water level, height tints above */
+        WATER,
+        /** steepness from flat to cliff */
+        SLOPE
+    }
+    
+    // gradient stops: position in range [0, 1] and RGB color
+    private static final float[] LAND_STOPS = { 0.0f, 0.3f, 0.55f, 0.75f, 0.9f, 1.0f };
+    private static final int[] LAND_COLORS = {
+        0x206020, 0x90B040, 0xE0D070, 0x986A3C, 0x8C8C8C, 0xFFFFFF
+    };
+    
+    private static final float[] WATER_STOPS = { 0.0f, 1.0f };
+    private static final int[] WATER_COLORS = { 0x0A1E5A, 0x80C0FF };
+    
+    private static final float[] SLOPE_STOPS = { 0.0f, 0.05f, 0.15f, 0.4f, 1.0f };
+    private static final int[] SLOPE_COLORS = {
+        0x1A9850, 0x91CF60, 0xFEE08B, 0xD73027, 0x67001F
+    };
+    
+    private Mode mode = Mode.GRAY;
+    private int waterLevel = 120;
+    private int contourInterval = 0;
+    
+    private final int[] colors = new int[256];
+    private final int[] bands = new int[256];
+    
+    
+    public ReliefColors()
+    {
+        update();
+    }
+    
+    public Mode getMode()
+    {
+        return mode;
+    }
+    
+    public void setMode(Mode mode)
+    {
+        this.mode = mode;
+        update();
+    }
+    
+    /**
+     * Returns height (255 - sample value) of water surface.
+     */
+    public int getWaterLevel()
+    {
+        return waterLevel;
+    }
+    
+    public void setWaterLevel(int waterLevel)
+    {
+        this.waterLevel = ReliefEditor.clamp(waterLevel, 0, 255);
+        update();
+    }
+    
+    public int getContourInterval()
+    {
+        return contourInterval;
+    }
+    
+    /**
+     * Sets height difference between contour lines, 0 turns contours off.
+     */
+    public void setContourInterval(int contourInterval)
+    {
+        this.contourInterval = Math.max(contourInterval, 0);
+        update();
+    }
+    
+    /**
+     * Writes RGB colors of cells in rectangle (inclusive) into pixel array
+     * with one pixel per cell.
+     */
+    public void render(Heightfield relief, int[] pixels,
+            int minX, int minY, int maxX, int maxY)
+    {
+        int width = relief.getWidth();
+        int height = relief.getHeight();
+        
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, width - 1);
+        maxY = Math.min(maxY, height - 1);
+        
+        for(int y=minY; y<=maxY; y++)
+        {
+            int up = Math.max(y - 1, 0);
+            int down = Math.min(y + 1, height - 1);
+            
+            for(int x=minX; x<=maxX; x++)
+            {
+                int right = Math.min(x + 1, width - 1);
+                int value = relief.get(x, y);
+                int color;
+                
+                if(mode == Mode.SLOPE)
+                {
+                    // central differences, sum of both directions
+                    int dx = relief.get(right, y) - relief.get(Math.max(x - 1, 0), y);
+                    int dy = relief.get(x, down) - relief.get(x, up);
+                    
+                    color = colors[Math.min(Math.abs(dx) + Math.abs(dy), 255)];
+                }
+                else
+                {
+                    color = colors[value];
+                }
+                
+                if(contourInterval > 0)
+                {
+                    int band = bands[value];
+                    
+                    if(band != bands[relief.get(right, y)]
+                            || band != bands[relief.get(x, down)])
+                        color = (color >> 1) & 0x7F7F7F;
+                }
+                
+                pixels[x + width * y] = color;
+            }
+        }
+    }
+    
+    private void update()
+    {
+        for(int i=0; i<256; i++)
+        {
+            int h = 255 - i;
+            
+            switch(mode)
+            {
+                case GRAY:
+                    colors[i] = i << 16 | i << 8 | i;
+                    break;
+                case HYPSOMETRIC:
+                    colors[i] = gradient(LAND_STOPS, LAND_COLORS, h / 255.0f);
+                    break;
+                case WATER:
+                    if(h < waterLevel)
+                        colors[i] = gradient(WATER_STOPS, WATER_COLORS,
+                                (float) h / waterLevel);
+                    else
+                        colors[i] = gradient(LAND_STOPS, LAND_COLORS,
+                                (float) (h - waterLevel) / Math.max(255 - waterLevel, 1));
+                    break;
+                case SLOPE:
+                    // table is indexed by slope, not by sample value
+                    colors[i] = gradient(SLOPE_STOPS, SLOPE_COLORS, i / 255.0f);
+                    break;
+            }
+            
+            bands[i] = contourInterval > 0 ? h / contourInterval : 0;
+        }
+    }
+    
+    private static int gradient(float[] stops, int[] colors, float t)
+    {
+        int k = 1;
+        
+        while(k < stops.length - 1 && t > stops[k])
+            k++;
+        
+        float f = (t - stops[k-1]) / (stops[k] - stops[k-1]);
+        f = Math.max(0.0f, Math.min(f, 1.0f));
+        
+        int a = colors[k-1];
+        int b = colors[k];
+        int result = 0;
+        
+        for(int shift=0; shift<24; shift+=8)
+        {
+            int ca = (a >> shift) & 0xFF;
+            int cb = (b >> shift) & 0xFF;
+            
+            result |= Math.round(ca + (cb - ca) * f) << shift;
+        }
+        
+        return result;
+    }
+}
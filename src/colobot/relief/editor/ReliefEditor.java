@@ -6,25 +6,50 @@ package colobot.relief.editor;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
-import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JSeparator;
+import javax.swing.KeyStroke;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 public class ReliefEditor extends JPanel implements MouseListener,
         MouseMotionListener, ActionListener
 {
+    // maximum brush stamps applied in one frame
+    private static final int MAX_STAMPS = 256;
+    
+    // height difference between contour lines
+    private static final int CONTOUR_INTERVAL = 16;
+    
     // UI elements
     private final JMenuBar menubar = new JMenuBar();
     private final JMenuItem newMenuItem = new JMenuItem("New");
@@ -33,12 +58,34 @@ public class ReliefEditor extends JPanel implements MouseListener,
     private final JMenuItem saveMenuItem = new JMenuItem("Save");
     private final JMenuItem saveAsMenuItem = new JMenuItem("Save as");
     private final JMenuItem exitMenuItem = new JMenuItem("Exit");
+    private final JMenuItem undoMenuItem = new JMenuItem("Undo");
+    private final JMenuItem redoMenuItem = new JMenuItem("Redo");
+    private final JMenuItem largerMenuItem = new JMenuItem("Larger");
+    private final JMenuItem smallerMenuItem = new JMenuItem("Smaller");
+    private final JCheckBoxMenuItem contoursMenuItem
+            = new JCheckBoxMenuItem("Contours");
+    private final JCheckBoxMenuItem reloadMenuItem
+            = new JCheckBoxMenuItem("Reload on change", true);
     
     private final JFileChooser fileChooser
             = new JFileChooser(System.getProperty("user.dir"));
     
     private File currentFile = null;
-    private BufferedImage relief = null;
+    private FileWatcher watcher = null;
+    private File watchedFile = null;
+    
+    // modification time, length and key (inode) of current file as last
+    // read or written, read by watcher thread to skip own saves
+    private volatile long knownModified, knownLength;
+    private volatile Object knownKey;
+    private Heightfield relief = null;
+    private ReliefPyramid pyramid = null;
+    
+    // colored pyramid levels, drawn by tile cache
+    private BufferedImage[] images = null;
+    private int[][] pixels = null;
+    private final ReliefColors colors = new ReliefColors();
+    private final TileCache tiles = new TileCache();
     private float scale = 4.0f;
     private float centerX = 0f, centerY = 0f;
     private int change = 1;
@@ -46,7 +93,20 @@ public class ReliefEditor extends JPanel implements MouseListener,
     private int oldX, oldY;
     private boolean dragging = false;
     
-    private int selectedX, selectedY;
+    // read by render thread
+    private volatile int selectedX, selectedY;
+    
+    // cells changed by current operation, published as patch when done
+    private final DirtyRegion dirty = new DirtyRegion();
+    private final Queue<HeightPatch> patches = new ConcurrentLinkedQueue<>();
+    private final Brush brush = new Brush();
+    private final StrokePath stroke = new StrokePath();
+    private final int[] stamps = new int[2 * MAX_STAMPS];
+    private final Timer strokeTimer = new Timer(16, this);
+    private boolean painting = false;
+    private FileTask task = null;
+    private final EditHistory history = new EditHistory(
+            Long.getLong("relief.undo.limit", 16L << 20));
     
     
     public ReliefEditor()
@@ -59,18 +119,187 @@ public class ReliefEditor extends JPanel implements MouseListener,
         return menubar;
     }
     
-    public BufferedImage getRelief()
+    public Heightfield getRelief()
     {
         return relief;
     }
     
-    public void setRelief(BufferedImage relief)
+    public void setRelief(Heightfield relief)
     {
         this.relief = relief;
+        this.pyramid = null;
+        this.images = null;
+        this.pixels = null;
+        
+        if(relief != null)
+        {
+            pyramid = new ReliefPyramid(relief);
+            images = new BufferedImage[pyramid.getLevelCount()];
+            pixels = new int[images.length][];
+            
+            for(int k=0; k<images.length; k++)
+            {
+                images[k] = new BufferedImage(pyramid.getWidth(k),
+                        pyramid.getHeight(k), BufferedImage.TYPE_INT_RGB);
+                pixels[k] = ((DataBufferInt) images[k].getRaster()
+                        .getDataBuffer()).getData();
+                
+                colors.render(pyramid.getLevel(k), pixels[k], 0, 0,
+                        pyramid.getWidth(k) - 1, pyramid.getHeight(k) - 1);
+            }
+        }
+        
+        tiles.setSources(images);
+        
+        history.clear();
+        painting = false;
+        dirty.clear();
+        
+        patches.offer(relief == null ? HeightPatch.empty(161, 161)
+                : HeightPatch.reset(relief));
         
         repaint();
     }
     
+    /**
+     * Switches to heightfield with the same samples as current relief,
+     * e.g. file mapping of saved relief. Undo history, current stroke and
+     * view are kept, only pyramid is rebuilt to read the new samples.
+     */
+    private void rebindRelief(Heightfield relief)
+    {
+        this.relief = relief;
+        this.pyramid = new ReliefPyramid(relief);
+    }
+    
+    /**
+     * Returns reduced levels of current relief, kept up to date with edits.
+     * Useful for range queries and thumbnails. Used only on event thread.
+     */
+    public ReliefPyramid getPyramid()
+    {
+        return pyramid;
+    }
+    
+    /**
+     * Returns next relief change not yet seen by the caller or null.
+     * Can be called from any thread.
+     */
+    public HeightPatch pollPatch()
+    {
+        return patches.poll();
+    }
+    
+    /**
+     * Publishes cells changed since last call to render thread and
+     * repaints part of view showing them.
+     */
+    private void publishChanges()
+    {
+        DirtyRegion region = dirty.take();
+        
+        if(relief == null || region.isEmpty()) return;
+        
+        patches.offer(HeightPatch.capture(relief, region.getMinX(),
+                region.getMinY(), region.getMaxX(), region.getMaxY()));
+        pyramid.update(region.getMinX(), region.getMinY(),
+                region.getMaxX(), region.getMaxY());
+        
+        // colors of neighbours depend on changed cells (slope, contours)
+        redraw(region.getMinX() - 1, region.getMinY() - 1,
+                region.getMaxX() + 1, region.getMaxY() + 1);
+    }
+    
+    /**
+     * Recolors cells in rectangle (inclusive) and cells above them
+     * in all pyramid levels and repaints them.
+     */
+    private void redraw(int minX, int minY, int maxX, int maxY)
+    {
+        if(relief == null) return;
+        
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, relief.getWidth() - 1);
+        maxY = Math.min(maxY, relief.getHeight() - 1);
+        
+        colors.render(relief, pixels[0], minX, minY, maxX, maxY);
+        
+        // colors of reduced levels depend on their neighbours too
+        for(int k=1; k<pixels.length; k++)
+        {
+            colors.render(pyramid.getLevel(k), pixels[k], (minX >> k) - 1,
+                    (minY >> k) - 1, (maxX >> k) + 1, (maxY >> k) + 1);
+        }
+        
+        tiles.invalidate(minX, minY, maxX, maxY);
+        
+        int k = tiles.getSourceIndex(scale);
+        int margin = k > 0 ? 1 << k : 0;
+        
+        repaint(TileCache.getBounds(getOriginX(), getOriginY(), scale,
+                minX - margin, minY - margin, maxX + margin, maxY + margin));
+    }
+    
+    private void redrawAll()
+    {
+        if(relief != null)
+            redraw(0, 0, relief.getWidth() - 1, relief.getHeight() - 1);
+    }
+    
+    public ReliefColors getColors()
+    {
+        return colors;
+    }
+    
+    /**
+     * Sets height (255 - sample value) of water surface shown by colors.
+     */
+    public void setWaterLevel(int level)
+    {
+        colors.setWaterLevel(level);
+        redrawAll();
+    }
+    
+    /**
+     * Sets watcher used to reload current file changed by other programs.
+     */
+    public void setWatcher(FileWatcher watcher)
+    {
+        this.watcher = watcher;
+        updateWatch();
+    }
+    
+    public EditHistory getHistory()
+    {
+        return history;
+    }
+    
+    public Brush getBrush()
+    {
+        return brush;
+    }
+    
+    public void undo()
+    {
+        if(relief == null) return;
+        
+        if(history.undo(relief, dirty))
+        {
+            publishChanges();
+        }
+    }
+    
+    public void redo()
+    {
+        if(relief == null) return;
+        
+        if(history.redo(relief, dirty))
+        {
+            publishChanges();
+        }
+    }
+    
     public int getChange()
     {
         return change;
@@ -111,20 +340,34 @@ public class ReliefEditor extends JPanel implements MouseListener,
         int width = getWidth();
         int height = getHeight();
         
+        Rectangle clip = g.getClipBounds();
+        
+        if(clip == null)
+            clip = new Rectangle(0, 0, width, height);
+        
         g.setColor(Color.BLACK);
-        g.fillRect(0, 0, width, height);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
         
         if(relief == null) return;
         
-        g.translate(centerX, centerY);
-        g.scale(scale, scale);
-        g.drawImage(relief, 0, 0, 161, 161, 0, 0, 161, 161, this);
+        // only tiles inside repainted area are drawn
+        tiles.paint(g, getOriginX(), getOriginY(), scale, clip);
+    }
+    
+    private int getOriginX()
+    {
+        return Math.round(centerX);
+    }
+    
+    private int getOriginY()
+    {
+        return Math.round(centerY);
     }
 
     @Override
     public void mouseClicked(MouseEvent e)
     {
-        changePixel(e.getX(), e.getY(), change);
+        
     }
 
     @Override
@@ -137,6 +380,16 @@ public class ReliefEditor extends JPanel implements MouseListener,
             
             dragging = true;
         }
+        else if(relief != null)
+        {
+            history.beginStroke();
+            
+            stroke.setSpacing(0.5f * brush.getRadius());
+            stroke.begin(toImageX(e.getX()), toImageY(e.getY()));
+            painting = true;
+            
+            applyStroke();
+        }
     }
 
     @Override
@@ -146,6 +399,15 @@ public class ReliefEditor extends JPanel implements MouseListener,
         {
             dragging = false;
         }
+        else if(painting)
+        {
+            // finish remaining stamps before closing undo step
+            while(!stroke.isEmpty())
+                applyStroke();
+            
+            painting = false;
+            history.endStroke();
+        }
     }
 
     @Override
@@ -179,9 +441,13 @@ public class ReliefEditor extends JPanel implements MouseListener,
             
             repaint();
         }
-        else
+        else if(painting)
         {
-            changePixel(e.getX(), e.getY(), change);
+            // stamps are applied once per frame by stroke timer
+            stroke.moveTo(toImageX(e.getX()), toImageY(e.getY()));
+            
+            if(!strokeTimer.isRunning())
+                strokeTimer.start();
         }
         
         selectedX = toImageX(e.getX());
@@ -202,7 +468,7 @@ public class ReliefEditor extends JPanel implements MouseListener,
         
         if(source == newMenuItem)
         {
-            relief = new BufferedImage(161, 161, BufferedImage.TYPE_BYTE_GRAY);
+            newRelief();
         }
         else if(source == openMenuItem)
         {
@@ -220,36 +486,86 @@ public class ReliefEditor extends JPanel implements MouseListener,
         {
             save(null);
         }
+        else if(source == undoMenuItem)
+        {
+            undo();
+        }
+        else if(source == redoMenuItem)
+        {
+            redo();
+        }
+        else if(source == largerMenuItem)
+        {
+            brush.setRadius(brush.getRadius() + 1);
+        }
+        else if(source == smallerMenuItem)
+        {
+            brush.setRadius(brush.getRadius() - 1);
+        }
+        else if(source == contoursMenuItem)
+        {
+            colors.setContourInterval(contoursMenuItem.isSelected()
+                    ? CONTOUR_INTERVAL : 0);
+            redrawAll();
+        }
+        else if(source == reloadMenuItem)
+        {
+            updateWatch();
+        }
+        else if(source == strokeTimer)
+        {
+            if(painting)
+                applyStroke();
+        }
+        else if(source instanceof JRadioButtonMenuItem)
+        {
+            setOption(e.getActionCommand());
+        }
         else if(source == exitMenuItem)
         {
             // TODO: complete code
         }
     }
     
-    private void open(File file)
+    private void setOption(String command)
     {
-        if(file == null)
+        String[] parts = command.split(" ");
+        
+        switch(parts[0])
         {
-            int result = fileChooser.showOpenDialog(this);
-            if(result != JFileChooser.APPROVE_OPTION) return;
-
-            file = fileChooser.getSelectedFile();
+            case "mode":
+                brush.setMode(Brush.Mode.valueOf(parts[1]));
+                break;
+            case "shape":
+                brush.setShape(Brush.Shape.valueOf(parts[1]));
+                break;
+            case "falloff":
+                brush.setFalloff(Brush.Falloff.valueOf(parts[1]));
+                break;
+            case "colors":
+                colors.setMode(ReliefColors.Mode.valueOf(parts[1]));
+                redrawAll();
+                break;
         }
+    }
+    
+    private void newRelief()
+    {
+        if(task != null) return;
+        
+        String text = JOptionPane.showInputDialog(this, "Relief size", 161);
+        if(text == null) return;
         
         try
         {
-            BufferedImage image = ImageIO.read(file);
-
-            if(image.getWidth() != 161)
-                throw new RuntimeException("Invalid image width (not 161)");
+            int size = Integer.parseInt(text.trim());
             
-            if(image.getHeight() != 161)
-                throw new RuntimeException("Invalid image height (not 161)");
-
-            relief = image;
-            currentFile = file;
+            if(size < 2)
+                throw new RuntimeException("Invalid relief size");
             
-            repaint();
+            setRelief(new Heightfield(size, size));
+            currentFile = null;
+            updateWatch();
         }
         catch(Exception ex)
         {
@@ -257,8 +573,25 @@ public class ReliefEditor extends JPanel implements MouseListener,
         }
     }
     
-    private void save(File file)
+    void open(File file)
     {
+        if(task != null) return;
+        
+        if(file == null)
+        {
+            int result = fileChooser.showOpenDialog(this);
+            if(result != JFileChooser.APPROVE_OPTION) return;
+
+            file = fileChooser.getSelectedFile();
+        }
+        
+        startTask(new FileTask(file, null), "Opening " + file.getName());
+    }
+    
+    void save(File file)
+    {
+        if(task != null) return;
+        
         if(relief == null)
         {
             JOptionPane.showMessageDialog(this, "Nothing to save");
@@ -273,24 +606,327 @@ public class ReliefEditor extends JPanel implements MouseListener,
             file = fileChooser.getSelectedFile();
         }
         
+        // mapped relief saved to itself is only flushed, otherwise writer
+        // gets a copy, so editing can go on during saving
+        Heightfield snapshot = relief;
+        
         try
         {
-            String format = file.getName();
-            int index = format.lastIndexOf('.');
-
-            format = format.substring(index + 1);
-            System.out.println(format);
-
-            ImageIO.write(relief, format, file);
+            if(!MappedHeightfield.isRawFile(file)
+                    || !MappedHeightfield.isMapped(relief, file))
+                snapshot = relief.copy();
+        }
+        catch(IOException ex)
+        {
+            JOptionPane.showMessageDialog(this, ex.getLocalizedMessage());
+            return;
+        }
+        
+        startTask(new FileTask(file, snapshot), "Saving " + file.getName());
+    }
+    
+    /**
+     * Returns true while file is being opened or saved.
+     */
+    boolean isBusy()
+    {
+        return task != null;
+    }
+    
+    private void startTask(FileTask task, String message)
+    {
+        final ProgressMonitor monitor = new ProgressMonitor(this, message,
+                null, 0, 100);
+        
+        this.task = task;
+        task.monitor = monitor;
+        task.addPropertyChangeListener(new PropertyChangeListener()
+        {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt)
+            {
+                FileTask source = (FileTask) evt.getSource();
+                
+                if(!"progress".equals(evt.getPropertyName())) return;
+                
+                monitor.setProgress(source.getProgress());
+                
+                if(monitor.isCanceled())
+                    source.cancel(false);
+            }
+        });
+        
+        task.execute();
+    }
+    
+    /**
+     * Called on event dispatch thread when opening or saving ends.
+     */
+    private void finishTask(FileTask task)
+    {
+        this.task = null;
+        task.monitor.close();
+        
+        if(task.isCancelled()) return;
+        
+        try
+        {
+            Heightfield result = task.get();
+            
+            if(task.snapshot == null)
+            {
+                setRelief(result);
+            }
+            else if(result != relief && (result != task.snapshot
+                    || relief instanceof MappedHeightfield))
+            {
+                // relief is now backed by saved raw file, or by memory for
+                // images, never by mapping of other file; edits done during
+                // saving are kept
+                result.getBuffer().put(relief.getBuffer());
+                rebindRelief(result);
+            }
             
-            currentFile = file;
+            currentFile = task.file;
+            rememberFile(currentFile);
+            updateWatch();
         }
-        catch(Exception ex)
+        catch(ExecutionException ex)
+        {
+            JOptionPane.showMessageDialog(this, ex.getCause().getLocalizedMessage());
+        }
+        catch(InterruptedException ex)
         {
             JOptionPane.showMessageDialog(this, ex.getLocalizedMessage());
         }
     }
     
+    private void updateWatch()
+    {
+        if(watcher == null) return;
+        
+        File file = reloadMenuItem.isSelected() ? currentFile : null;
+        
+        if(file == null ? watchedFile == null : file.equals(watchedFile)) return;
+        
+        if(watchedFile != null)
+            watcher.unwatch(watchedFile);
+        
+        watchedFile = null;
+        
+        if(file == null) return;
+        
+        try
+        {
+            watcher.watch(file, new FileWatcher.Listener()
+            {
+                @Override
+                public void changed(File file)
+                {
+                    fileChanged(file);
+                }
+            });
+            
+            watchedFile = file;
+        }
+        catch(IOException ex)
+        {
+            System.err.println(file + ": " + ex.getLocalizedMessage());
+        }
+    }
+    
+    /**
+     * Called on watcher thread, decodes changed file there.
+     */
+    private void fileChanged(final File file)
+    {
+        if(isKnown(file)) return;
+        
+        if(MappedHeightfield.isRawFile(file))
+        {
+            rawFileChanged(file);
+            return;
+        }
+        
+        try
+        {
+            final Heightfield changed = ReliefIO.read(file);
+            
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    applyExternal(file, changed);
+                }
+            });
+        }
+        catch(IOException ex)
+        {
+            System.err.println(file + ": " + ex.getLocalizedMessage());
+        }
+    }
+    
+    /**
+     * Applies cells that differ from changed file as one undo step.
+     */
+    private void applyExternal(File file, Heightfield changed)
+    {
+        // file may have been closed or is being saved meanwhile; watcher
+        // may also have decoded our own save before it was remembered
+        if(!file.equals(currentFile) || relief == null || task != null
+                || isKnown(file)) return;
+        
+        rememberFile(file);
+        
+        int width = relief.getWidth();
+        int height = relief.getHeight();
+        
+        if(changed.getWidth() != width || changed.getHeight() != height)
+        {
+            setRelief(changed);
+            return;
+        }
+        
+        boolean single = !history.isStrokeActive();
+        if(single) history.beginStroke();
+        
+        for(int j=0; j<height; j++)
+        {
+            for(int i=0; i<width; i++)
+            {
+                int index = relief.getIndex(i, j);
+                int oldValue = relief.get(index);
+                int newValue = changed.get(index);
+                
+                if(oldValue == newValue) continue;
+                
+                history.record(index, oldValue, newValue);
+                relief.set(index, newValue);
+                dirty.add(i, j);
+            }
+        }
+        
+        publishChanges();
+        
+        if(single) history.endStroke();
+    }
+    
+    /**
+     * Called on watcher thread for raw file. Mapped relief already shows
+     * changes written in place, so it is only redrawn and undo history,
+     * which no longer matches the samples, is cleared. File of other size
+     * or replaced by another one (new inode) is mapped again, old mapping
+     * may fault beyond end of truncated file.
+     */
+    private void rawFileChanged(final File file)
+    {
+        Object key = getFileKey(file);
+        boolean replaced = file.length() != knownLength
+                || (key != null && !key.equals(knownKey));
+        
+        MappedHeightfield reopened = null;
+        
+        if(replaced)
+        {
+            try
+            {
+                reopened = MappedHeightfield.open(file);
+            }
+            catch(IOException ex)
+            {
+                // file is probably being written, next change tries again
+                System.err.println(file + ": " + ex.getLocalizedMessage());
+                
+                if(file.length() < knownLength)
+                    detachTruncated(file);
+                
+                return;
+            }
+        }
+        
+        final MappedHeightfield changed = reopened;
+        
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // file may have been closed or saved meanwhile
+                if(!file.equals(currentFile) || relief == null
+                        || task != null || isKnown(file)) return;
+                
+                rememberFile(file);
+                
+                if(changed != null)
+                {
+                    setRelief(changed);
+                    return;
+                }
+                
+                history.clear();
+                pyramid.update(0, 0, relief.getWidth() - 1, relief.getHeight() - 1);
+                redrawAll();
+                patches.offer(HeightPatch.reset(relief));
+            }
+        });
+    }
+    
+    /**
+     * Replaces mapping of truncated file with copy in memory, before
+     * anything reads samples past end of file.
+     */
+    private void detachTruncated(final File file)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(!file.equals(currentFile)
+                        || !(relief instanceof MappedHeightfield)) return;
+                
+                setRelief(((MappedHeightfield) relief).copyAvailable());
+            }
+        });
+    }
+    
+    /**
+     * Returns true if file was not changed since last read or written.
+     */
+    private boolean isKnown(File file)
+    {
+        Object key = getFileKey(file);
+        
+        return file.lastModified() == knownModified
+                && file.length() == knownLength
+                && (key == null || key.equals(knownKey));
+    }
+    
+    private void rememberFile(File file)
+    {
+        knownModified = file.lastModified();
+        knownLength = file.length();
+        knownKey = getFileKey(file);
+    }
+    
+    /**
+     * Returns object identifying file on disk (inode on Unix) or null if
+     * file system does not provide one.
+     */
+    private static Object getFileKey(File file)
+    {
+        try
+        {
+            return Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class).fileKey();
+        }
+        catch(IOException ex)
+        {
+            return null;
+        }
+    }
+    
     private void initComponents()
     {
         JMenu menu = new JMenu("File");
@@ -299,55 +935,123 @@ public class ReliefEditor extends JPanel implements MouseListener,
         menu.add(reopenMenuItem);
         menu.add(saveMenuItem);
         menu.add(saveAsMenuItem);
+        menu.add(reloadMenuItem);
         menu.add(new JSeparator());
         menu.add(exitMenuItem);
         menubar.add(menu);
         
+        menu = new JMenu("Edit");
+        menu.add(undoMenuItem);
+        menu.add(redoMenuItem);
+        menubar.add(menu);
+        
+        menu = new JMenu("View");
+        addOptions(menu, "colors", ReliefColors.Mode.values(), colors.getMode());
+        menu.add(new JSeparator());
+        menu.add(contoursMenuItem);
+        menubar.add(menu);
+        
+        menu = new JMenu("Brush");
+        addOptions(menu, "mode", Brush.Mode.values(), brush.getMode());
+        menu.add(new JSeparator());
+        addOptions(menu, "shape", Brush.Shape.values(), brush.getShape());
+        menu.add(new JSeparator());
+        addOptions(menu, "falloff", Brush.Falloff.values(), brush.getFalloff());
+        menu.add(new JSeparator());
+        menu.add(largerMenuItem);
+        menu.add(smallerMenuItem);
+        menubar.add(menu);
+        
+        largerMenuItem.setAccelerator(KeyStroke.getKeyStroke(
+                KeyEvent.VK_CLOSE_BRACKET, 0));
+        smallerMenuItem.setAccelerator(KeyStroke.getKeyStroke(
+                KeyEvent.VK_OPEN_BRACKET, 0));
+        
+        undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+                InputEvent.CTRL_DOWN_MASK));
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y,
+                InputEvent.CTRL_DOWN_MASK));
+        
         newMenuItem.addActionListener(this);
         openMenuItem.addActionListener(this);
         reopenMenuItem.addActionListener(this);
         saveMenuItem.addActionListener(this);
         saveAsMenuItem.addActionListener(this);
         exitMenuItem.addActionListener(this);
+        undoMenuItem.addActionListener(this);
+        redoMenuItem.addActionListener(this);
+        largerMenuItem.addActionListener(this);
+        smallerMenuItem.addActionListener(this);
+        contoursMenuItem.addActionListener(this);
+        reloadMenuItem.addActionListener(this);
+        
+        strokeTimer.setRepeats(false);
         
         this.addMouseListener(this);
         this.addMouseMotionListener(this);
     }
     
-    public void changePixel(int dv)
+    private void addOptions(JMenu menu, String name, Enum<?>[] values,
+            Enum<?> selected)
     {
-        if(relief == null) return;
+        ButtonGroup group = new ButtonGroup();
         
-        int x = selectedX;
-        int y = selectedY;
-        
-        if(x < 0 || x > 160) return;
-        if(y < 0 || y > 160) return;
+        for(Enum<?> value : values)
+        {
+            String text = value.name().charAt(0)
+                    + value.name().substring(1).toLowerCase();
+            
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(text);
+            item.setActionCommand(name + " " + value.name());
+            item.setSelected(value == selected);
+            item.addActionListener(this);
+            
+            group.add(item);
+            menu.add(item);
+        }
+    }
+    
+    public void changePixel(int dv)
+    {
+        changeCell(selectedX, selectedY, dv);
+    }
+    
+    public void changePixel(int x, int y, int dv)
+    {
+        changeCell(toImageX(x), toImageY(y), dv);
+    }
+    
+    /**
+     * Applies queued stamps of current stroke, at most MAX_STAMPS at once.
+     */
+    private void applyStroke()
+    {
+        int count = stroke.drain(stamps, MAX_STAMPS);
         
-        int v = clamp((0xFF & relief.getRGB(x, y)) - dv, 0, 255);
+        for(int i=0; i<count; i++)
+            brush.apply(relief, stamps[2*i], stamps[2*i+1], change, history, dirty);
         
-        int color = v | (v << 8) | (v << 16) | (0xFF << 24);
+        if(count > 0)
+            publishChanges();
         
-        relief.setRGB(x, y, color);
-        repaint();
+        if(!stroke.isEmpty())
+            strokeTimer.restart();
     }
     
-    public void changePixel(int x, int y, int dv)
+    private void changeCell(int x, int y, int dv)
     {
         if(relief == null) return;
+        if(!relief.contains(x, y)) return;
         
-        x = toImageX(x);
-        y = toImageY(y);
-        
-        if(x < 0 || x > 160) return;
-        if(y < 0 || y > 160) return;
-        
-        int v = clamp((0xFF & relief.getRGB(x, y)) - dv, 0, 255);
+        // edit outside of mouse stroke is single undo step
+        boolean single = !history.isStrokeActive();
+        if(single) history.beginStroke();
         
-        int color = v | (v << 8) | (v << 16) | (0xFF << 24);
+        // whole brush footprint is one batch with one repaint
+        brush.apply(relief, x, y, dv, history, dirty);
+        publishChanges();
         
-        relief.setRGB(x, y, color);
-        repaint();
+        if(single) history.endStroke();
     }
     
     public int toImageX(int mouseX)
@@ -364,4 +1068,43 @@ public class ReliefEditor extends JPanel implements MouseListener,
     {
         return Math.min(max, Math.max(value, min));
     }
+    
+    /**
+     * Opens (snapshot is null) or saves relief on background thread.
+     */
+    private class FileTask extends SwingWorker<Heightfield, Void>
+            implements ReliefIO.Progress
+    {
+        private final File file;
+        private final Heightfield snapshot;
+        private ProgressMonitor monitor;
+        
+        
+        public FileTask(File file, Heightfield snapshot)
+        {
+            this.file = file;
+            this.snapshot = snapshot;
+        }
+        
+        @Override
+        protected Heightfield doInBackground() throws Exception
+        {
+            if(snapshot == null)
+                return ReliefIO.read(file, this);
+            else
+                return ReliefIO.write(snapshot, file, this);
+        }
+        
+        @Override
+        public void update(float done)
+        {
+            setProgress(clamp((int) (100 * done), 0, 100));
+        }
+        
+        @Override
+        protected void done()
+        {
+            finishTask(this);
+        }
+    }
 }
@@ -0,0 +1,373 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Reading and writing relief files. Format is chosen by file extension:
+ * native raw format (see MappedHeightfield), 8-bit PNG and BMP (see
+ * GrayImageIO) or any other ImageIO image format.
+ *
+ * Files are written to temporary file in the same directory, which then
+ * replaces target file, so failed or cancelled save never leaves truncated
+ * relief behind.
+ */
+public class ReliefIO
+{
+    /**
+     * Receives progress of reading or writing, called on I/O thread.
+     */
+    public interface Progress
+    {
+        /**
+         * Reports fraction of work done, in range [0, 1].
+         */
+        public void update(float done);
+        
+        /**
+         * Returns true if operation should stop. It then ends with
+         * CancellationException.
+         */
+        public boolean isCancelled();
+    }
+    
+    
+    private ReliefIO()
+    {
+    
+    }
+    
+    public static Heightfield read(File file) throws IOException
+    {
+        return read(file, null);
+    }
+    
+    public static Heightfield read(File file, Progress progress)
+            throws IOException
+    {
+        if(MappedHeightfield.isRawFile(file))
+            return MappedHeightfield.open(file);
+        
+        Heightfield relief = null;
+        
+        if(GrayImageIO.isSupported(getExtension(file)))
+            relief = GrayImageIO.read(file, progress);
+        
+        if(relief == null)
+            relief = readImage(file, progress);
+        
+        if(relief.getWidth() < 2 || relief.getHeight() < 2)
+            throw new IOException("Invalid relief size");
+        
+        return relief;
+    }
+    
+    /**
+     * Reads relief through ImageIO, any image type is accepted.
+     */
+    static Heightfield readImage(File file, Progress progress)
+            throws IOException
+    {
+        BufferedImage image;
+        
+        try(ImageInputStream input = ImageIO.createImageInputStream(file))
+        {
+            if(input == null)
+                throw new IOException("Cannot read file: " + file);
+            
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            
+            if(!readers.hasNext())
+                throw new IOException("Unsupported image format");
+            
+            ImageReader reader = readers.next();
+            
+            try
+            {
+                reader.setInput(input, true, true);
+                
+                if(progress != null)
+                    reader.addIIOReadProgressListener(new Listener(progress));
+                
+                image = reader.read(0);
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        
+        checkCancelled(progress);
+        
+        return Heightfield.fromImage(image);
+    }
+    
+    /**
+     * Writes relief to file and returns heightfield backed by that file,
+     * which is either mapped raw file or given relief for image formats.
+     */
+    public static Heightfield write(Heightfield relief, File file)
+            throws IOException
+    {
+        return write(relief, file, null);
+    }
+    
+    /**
+     * Writes relief to file like {@link #write(Heightfield, File)}.
+     * Relief must not be changed during writing, unless it is mapped raw
+     * file being saved to itself, which only flushes the mapping.
+     */
+    public static Heightfield write(Heightfield relief, File file,
+            Progress progress) throws IOException
+    {
+        boolean raw = MappedHeightfield.isRawFile(file);
+        
+        // raw relief is saved to its own file by flushing the mapping
+        if(raw && MappedHeightfield.isMapped(relief, file))
+        {
+            ((MappedHeightfield) relief).flush();
+            return relief;
+        }
+        
+        String format = getExtension(file);
+        boolean gray = GrayImageIO.isSupported(format);
+        ImageWriter writer = null;
+        
+        if(!raw && !gray)
+        {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+            
+            if(!writers.hasNext())
+                throw new IOException("Unsupported image format: " + format);
+            
+            writer = writers.next();
+        }
+        
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        boolean done = false;
+        
+        try
+        {
+            if(raw)
+                MappedHeightfield.write(temp, relief, progress);
+            else if(gray)
+                GrayImageIO.write(relief, temp, format, progress);
+            else
+                writeImage(writer, relief, temp, progress);
+            
+            checkCancelled(progress);
+            move(temp, file);
+            done = true;
+        }
+        finally
+        {
+            if(writer != null)
+                writer.dispose();
+            
+            if(!done)
+                temp.delete();
+        }
+        
+        return raw ? MappedHeightfield.open(file) : relief;
+    }
+    
+    /**
+     * Returns true if file has extension of readable relief format.
+     */
+    public static boolean isReliefFile(File file)
+    {
+        String extension = getExtension(file);
+        
+        if(MappedHeightfield.isRawFile(file) || GrayImageIO.isSupported(extension))
+            return true;
+        
+        for(String suffix : ImageIO.getReaderFileSuffixes())
+        {
+            if(suffix.equalsIgnoreCase(extension)) return true;
+        }
+        
+        return false;
+    }
+    
+    public static String getExtension(File file)
+    {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        
+        return name.substring(index + 1).toLowerCase();
+    }
+    
+    static void checkCancelled(Progress progress)
+    {
+        if(progress != null && progress.isCancelled())
+            throw new CancellationException();
+    }
+    
+    private static void writeImage(ImageWriter writer, Heightfield relief,
+            File file, Progress progress) throws IOException
+    {
+        try(ImageOutputStream output = ImageIO.createImageOutputStream(file))
+        {
+            writer.setOutput(output);
+            
+            if(progress != null)
+                writer.addIIOWriteProgressListener(new Listener(progress));
+            
+            writer.write(relief.toImage());
+        }
+    }
+    
+    /**
+     * Replaces target file with source file, atomically if possible.
+     */
+    static void move(File source, File target) throws IOException
+    {
+        try
+        {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(AtomicMoveNotSupportedException e)
+        {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Forwards ImageIO progress and aborts reader or writer on cancel.
+     */
+    private static class Listener implements IIOReadProgressListener,
+            IIOWriteProgressListener
+    {
+        private final Progress progress;
+        
+        
+        public Listener(Progress progress)
+        {
+            this.progress = progress;
+        }
+        
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone)
+        {
+            progress.update(percentageDone / 100.0f);
+            
+            if(progress.isCancelled())
+                source.abort();
+        }
+        
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone)
+        {
+            progress.update(percentageDone / 100.0f);
+            
+            if(progress.isCancelled())
+                source.abort();
+        }
+        
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex)
+        {
+        
+        }
+        
+        @Override
+        public void sequenceComplete(ImageReader source)
+        {
+        
+        }
+        
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex)
+        {
+        
+        }
+        
+        @Override
+        public void imageComplete(ImageReader source)
+        {
+        
+        }
+        
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex,
+                int thumbnailIndex)
+        {
+        
+        }
+        
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone)
+        {
+        
+        }
+        
+        @Override
+        public void thumbnailComplete(ImageReader source)
+        {
+        
+        }
+        
+        @Override
+        public void readAborted(ImageReader source)
+        {
+        
+        }
+        
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex)
+        {
+        
+        }
+        
+        @Override
+        public void imageComplete(ImageWriter source)
+        {
+        
+        }
+        
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex,
+                int thumbnailIndex)
+        {
+        
+        }
+        
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone)
+        {
+        
+        }
+        
+        @Override
+        public void thumbnailComplete(ImageWriter source)
+        {
+        
+        }
+        
+        @Override
+        public void writeAborted(ImageWriter source)
+        {
+        
+        }
+    }
+}
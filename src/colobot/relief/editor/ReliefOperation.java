@@ -0,0 +1,16 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+/**
+ * Operation transforming whole relief, used by batch processing.
+ */
+public interface ReliefOperation
+{
+    /**
+     * Applies operation. Relief can be modified in place or new
+     * heightfield can be returned (e.g. when size changes).
+     */
+    public Heightfield apply(Heightfield relief);
+}
@@ -0,0 +1,227 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+/**
+ * Standard relief operations. Heights are given in relief units, where
+ * sample value v corresponds to height 255 - v.
+ */
+public class ReliefOperations
+{
+    private ReliefOperations()
+    {
+        
+    }
+    
+    /**
+     * Creates operation from its textual form, e.g. "offset 10".
+     */
+    public static ReliefOperation parse(String text)
+    {
+        String[] args = text.trim().split("\\s+");
+        String name = args[0].toLowerCase();
+        
+        switch(name)
+        {
+            case "offset":
+                checkArguments(args, 1, 1);
+                return offset(Integer.parseInt(args[1]));
+            case "scale":
+                checkArguments(args, 1, 1);
+                return scale(Float.parseFloat(args[1]));
+            case "smooth":
+                checkArguments(args, 0, 1);
+                int radius = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+                
+                if(radius < 1)
+                    throw new IllegalArgumentException("Radius must be at least 1: "
+                            + args[0]);
+                
+                return smooth(radius);
+            case "clamp":
+                checkArguments(args, 2, 2);
+                return clamp(Integer.parseInt(args[1]),
+                        Integer.parseInt(args[2]));
+            case "resample":
+                checkArguments(args, 1, 2);
+                int width = Integer.parseInt(args[1]);
+                int height = args.length > 2 ? Integer.parseInt(args[2]) : width;
+                return resample(width, height);
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+    }
+    
+    private static void checkArguments(String[] args, int min, int max)
+    {
+        int count = args.length - 1;
+        
+        if(count < min || count > max)
+            throw new IllegalArgumentException("Invalid number of arguments: "
+                    + args[0]);
+    }
+    
+    /**
+     * Raises (or lowers for negative value) all heights.
+     */
+    public static ReliefOperation offset(final int value)
+    {
+        return new ReliefOperation()
+        {
+            @Override
+            public Heightfield apply(Heightfield relief)
+            {
+                int size = relief.getWidth() * relief.getHeight();
+                
+                for(int i=0; i<size; i++)
+                    relief.set(i, ReliefEditor.clamp(relief.get(i) - value, 0, 255));
+                
+                return relief;
+            }
+        };
+    }
+    
+    /**
+     * Multiplies all heights by given factor.
+     */
+    public static ReliefOperation scale(final float factor)
+    {
+        return new ReliefOperation()
+        {
+            @Override
+            public Heightfield apply(Heightfield relief)
+            {
+                int size = relief.getWidth() * relief.getHeight();
+                
+                for(int i=0; i<size; i++)
+                {
+                    int h = Math.round(factor * (255 - relief.get(i)));
+                    relief.set(i, 255 - ReliefEditor.clamp(h, 0, 255));
+                }
+                
+                return relief;
+            }
+        };
+    }
+    
+    /**
+     * Limits heights to given range.
+     */
+    public static ReliefOperation clamp(final int min, final int max)
+    {
+        return new ReliefOperation()
+        {
+            @Override
+            public Heightfield apply(Heightfield relief)
+            {
+                int size = relief.getWidth() * relief.getHeight();
+                
+                for(int i=0; i<size; i++)
+                {
+                    int h = ReliefEditor.clamp(255 - relief.get(i), min, max);
+                    relief.set(i, 255 - h);
+                }
+                
+                return relief;
+            }
+        };
+    }
+    
+    /**
+     * Averages every sample with its neighbours within given radius.
+     */
+    public static ReliefOperation smooth(final int radius)
+    {
+        return new ReliefOperation()
+        {
+            @Override
+            public Heightfield apply(Heightfield relief)
+            {
+                int width = relief.getWidth();
+                int height = relief.getHeight();
+                
+                // separable box filter, horizontal pass into temporary array
+                int[] temp = new int[width * height];
+                
+                for(int j=0; j<height; j++)
+                {
+                    for(int i=0; i<width; i++)
+                    {
+                        int sum = 0, count = 0;
+                        
+                        for(int k=Math.max(i-radius, 0); k<=Math.min(i+radius, width-1); k++)
+                        {
+                            sum += relief.get(k, j);
+                            count++;
+                        }
+                        
+                        temp[i + width * j] = sum * 256 / count;
+                    }
+                }
+                
+                for(int j=0; j<height; j++)
+                {
+                    for(int i=0; i<width; i++)
+                    {
+                        int sum = 0, count = 0;
+                        
+                        for(int k=Math.max(j-radius, 0); k<=Math.min(j+radius, height-1); k++)
+                        {
+                            sum += temp[i + width * k];
+                            count++;
+                        }
+                        
+                        relief.set(i, j, (sum / count + 128) >> 8);
+                    }
+                }
+                
+                return relief;
+            }
+        };
+    }
+    
+    /**
+     * Changes relief size using bilinear interpolation.
+     */
+    public static ReliefOperation resample(final int width, final int height)
+    {
+        if(width < 2 || height < 2)
+            throw new IllegalArgumentException("Invalid relief size");
+        
+        return new ReliefOperation()
+        {
+            @Override
+            public Heightfield apply(Heightfield relief)
+            {
+                Heightfield result = new Heightfield(width, height);
+                
+                float sx = (float) (relief.getWidth() - 1) / (width - 1);
+                float sy = (float) (relief.getHeight() - 1) / (height - 1);
+                
+                for(int j=0; j<height; j++)
+                {
+                    float y = j * sy;
+                    int y0 = Math.min((int) y, relief.getHeight() - 2);
+                    float fy = y - y0;
+                    
+                    for(int i=0; i<width; i++)
+                    {
+                        float x = i * sx;
+                        int x0 = Math.min((int) x, relief.getWidth() - 2);
+                        float fx = x - x0;
+                        
+                        float v = (1-fx) * (1-fy) * relief.get(x0, y0)
+                                + fx * (1-fy) * relief.get(x0+1, y0)
+                                + (1-fx) * fy * relief.get(x0, y0+1)
+                                + fx * fy * relief.get(x0+1, y0+1);
+                        
+                        result.set(i, j, Math.round(v));
+                    }
+                }
+                
+                return result;
+            }
+        };
+    }
+}
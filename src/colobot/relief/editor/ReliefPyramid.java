@@ -0,0 +1,314 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reduced copies of relief, each level half the size of previous one.
+ * Cell of level k covers 2^k x 2^k relief cells (fewer at odd edges) and
+ * keeps their minimum, maximum and rounded average sample value. Level 0
+ * is the relief itself. Levels go down to single cell.
+ *
+ * Changes are applied with {@link #update}, which recomputes only cells
+ * above changed rectangle. Averages of each level are available as
+ * Heightfield, e.g. for drawing zoomed out relief or thumbnails.
+ */
+public class ReliefPyramid
+{
+    private final Heightfield relief;
+    private final int levels;
+    private final int[] widths;
+    private final int[] heights;
+    private final byte[][] min;
+    private final byte[][] max;
+    private final Heightfield[] averages;
+    
+    // exact sums and numbers of relief cells, so averages are not rounded twice
+    private final long[][] sums;
+    private final int[][] counts;
+    
+    
+    public ReliefPyramid(Heightfield relief)
+    {
+        this.relief = relief;
+        
+        int count = 1;
+        
+        for(int w=relief.getWidth(), h=relief.getHeight(); w>1 || h>1; count++)
+        {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+        
+        levels = count;
+        widths = new int[levels];
+        heights = new int[levels];
+        min = new byte[levels][];
+        max = new byte[levels][];
+        averages = new Heightfield[levels];
+        sums = new long[levels][];
+        counts = new int[levels][];
+        
+        widths[0] = relief.getWidth();
+        heights[0] = relief.getHeight();
+        averages[0] = relief;
+        
+        for(int k=1; k<levels; k++)
+        {
+            widths[k] = (widths[k-1] + 1) / 2;
+            heights[k] = (heights[k-1] + 1) / 2;
+            
+            int size = widths[k] * heights[k];
+            min[k] = new byte[size];
+            max[k] = new byte[size];
+            averages[k] = new Heightfield(widths[k], heights[k]);
+            sums[k] = new long[size];
+            counts[k] = new int[size];
+        }
+        
+        update(0, 0, widths[0] - 1, heights[0] - 1);
+    }
+    
+    public Heightfield getRelief()
+    {
+        return relief;
+    }
+    
+    public int getLevelCount()
+    {
+        return levels;
+    }
+    
+    public int getWidth(int level)
+    {
+        return widths[level];
+    }
+    
+    public int getHeight(int level)
+    {
+        return heights[level];
+    }
+    
+    /**
+     * Returns averages of level as heightfield. It is changed by updates.
+     */
+    public Heightfield getLevel(int level)
+    {
+        return averages[level];
+    }
+    
+    /**
+     * Returns smallest level with both sizes not greater than given size.
+     */
+    public int getLevelFor(int size)
+    {
+        int level = 0;
+        
+        while(level < levels - 1 && Math.max(widths[level], heights[level]) > size)
+            level++;
+        
+        return level;
+    }
+    
+    public int getMin(int level, int x, int y)
+    {
+        if(level == 0) return relief.get(x, y);
+        
+        return 0xFF & min[level][x + widths[level] * y];
+    }
+    
+    public int getMax(int level, int x, int y)
+    {
+        if(level == 0) return relief.get(x, y);
+        
+        return 0xFF & max[level][x + widths[level] * y];
+    }
+    
+    public int getAverage(int level, int x, int y)
+    {
+        return averages[level].get(x, y);
+    }
+    
+    /**
+     * Recomputes levels above changed rectangle of relief (inclusive).
+     */
+    public void update(int minX, int minY, int maxX, int maxY)
+    {
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, widths[0] - 1);
+        maxY = Math.min(maxY, heights[0] - 1);
+        
+        if(minX > maxX || minY > maxY) return;
+        
+        for(int k=1; k<levels; k++)
+        {
+            minX >>= 1;
+            minY >>= 1;
+            maxX >>= 1;
+            maxY >>= 1;
+            
+            if(k == 1)
+            {
+                reduceRelief(minX, minY, maxX, maxY);
+                continue;
+            }
+            
+            for(int y=minY; y<=maxY; y++)
+            {
+                for(int x=minX; x<=maxX; x++)
+                {
+                    reduce(k, x, y);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns minimum sample value in rectangle of relief (inclusive).
+     */
+    public int findMin(int minX, int minY, int maxX, int maxY)
+    {
+        return query(0, minX, minY, maxX, maxY, false);
+    }
+    
+    /**
+     * Returns maximum sample value in rectangle of relief (inclusive).
+     */
+    public int findMax(int minX, int minY, int maxX, int maxY)
+    {
+        return query(0, minX, minY, maxX, maxY, true);
+    }
+    
+    private void reduce(int k, int x, int y)
+    {
+        int w = widths[k-1];
+        int x2 = Math.min(2 * x + 1, w - 1);
+        int y2 = Math.min(2 * y + 1, heights[k-1] - 1);
+        
+        int low = 255, high = 0, count = 0;
+        long sum = 0;
+        
+        for(int j=2*y; j<=y2; j++)
+        {
+            for(int i=2*x; i<=x2; i++)
+            {
+                int child = i + w * j;
+                
+                low = Math.min(low, 0xFF & min[k-1][child]);
+                high = Math.max(high, 0xFF & max[k-1][child]);
+                sum += sums[k-1][child];
+                count += counts[k-1][child];
+            }
+        }
+        
+        int index = x + widths[k] * y;
+        
+        min[k][index] = (byte) low;
+        max[k][index] = (byte) high;
+        sums[k][index] = sum;
+        counts[k][index] = count;
+        averages[k].set(index, (int) ((sum + count / 2) / count));
+    }
+    
+    /**
+     * Computes cells of level 1 in rectangle, reading relief rows in bulk.
+     */
+    private void reduceRelief(int minX, int minY, int maxX, int maxY)
+    {
+        int width = widths[0];
+        int x1 = 2 * minX;
+        int x2 = Math.min(2 * maxX + 1, width - 1);
+        int length = x2 - x1 + 1;
+        
+        ByteBuffer samples = relief.getBuffer();
+        byte[] row1 = new byte[length];
+        byte[] row2 = new byte[length];
+        
+        for(int y=minY; y<=maxY; y++)
+        {
+            int j1 = 2 * y;
+            int j2 = Math.min(j1 + 1, heights[0] - 1);
+            
+            samples.position(x1 + width * j1);
+            samples.get(row1);
+            samples.position(x1 + width * j2);
+            samples.get(row2);
+            
+            int rows = j2 - j1 + 1;
+            
+            for(int x=minX; x<=maxX; x++)
+            {
+                int i1 = 2 * x - x1;
+                int i2 = Math.min(i1 + 1, length - 1);
+                
+                int a = row1[i1] & 0xFF, b = row1[i2] & 0xFF;
+                int c = row2[i1] & 0xFF, d = row2[i2] & 0xFF;
+                
+                // duplicated edge cells are counted once
+                int count = (i2 - i1 + 1) * rows;
+                int sum = a + (i2 > i1 ? b : 0);
+                
+                if(rows > 1)
+                    sum += c + (i2 > i1 ? d : 0);
+                
+                int index = x + widths[1] * y;
+                
+                min[1][index] = (byte) Math.min(Math.min(a, b), Math.min(c, d));
+                max[1][index] = (byte) Math.max(Math.max(a, b), Math.max(c, d));
+                sums[1][index] = sum;
+                counts[1][index] = count;
+                averages[1].set(index, (sum + count / 2) / count);
+            }
+        }
+    }
+    
+    /**
+     * Takes cells of coarser level where they are fully inside rectangle,
+     * so only borders are scanned at each level.
+     */
+    private int query(int level, int minX, int minY, int maxX, int maxY,
+            boolean maximum)
+    {
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, widths[level] - 1);
+        maxY = Math.min(maxY, heights[level] - 1);
+        
+        int result = maximum ? 0 : 255;
+        
+        if(minX > maxX || minY > maxY) return result;
+        
+        // parent cells with both children inside
+        int px1 = (minX + 1) / 2, px2 = (maxX + 1) / 2 - 1;
+        int py1 = (minY + 1) / 2, py2 = (maxY + 1) / 2 - 1;
+        
+        boolean inner = level < levels - 1 && px1 <= px2 && py1 <= py2;
+        
+        if(inner)
+            result = query(level + 1, px1, py1, px2, py2, maximum);
+        
+        for(int y=minY; y<=maxY; y++)
+        {
+            boolean innerRow = inner && y >= 2 * py1 && y <= 2 * py2 + 1;
+            
+            for(int x=minX; x<=maxX; x++)
+            {
+                // skip cells already covered by parent level
+                if(innerRow && x == 2 * px1)
+                    x = 2 * px2 + 2;
+                
+                if(x > maxX) break;
+                
+                if(maximum)
+                    result = Math.max(result, getMax(level, x, y));
+                else
+                    result = Math.min(result, getMin(level, x, y));
+            }
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Arrays;
+
+/**
+ * Converts mouse positions of a stroke into evenly spaced brush stamps.
+ * Stamps are queued, so bursts of mouse events can be applied later
+ * in bounded batches.
+ */
+public class StrokePath
+{
+    private float spacing = 1.0f;
+    private float lastX, lastY;
+    private int lastStampX, lastStampY;
+    // distance travelled since last stamp
+    private float travelled = 0.0f;
+    
+    private int[] stamps = new int[256];
+    private int head = 0, tail = 0;
+    
+    
+    public float getSpacing()
+    {
+        return spacing;
+    }
+    
+    /**
+     * Sets distance between stamps in cells (at least 1).
+     */
+    public void setSpacing(float spacing)
+    {
+        this.spacing = Math.max(spacing, 1.0f);
+    }
+    
+    /**
+     * Starts new stroke with stamp at given cell.
+     */
+    public void begin(int x, int y)
+    {
+        head = 0;
+        tail = 0;
+        
+        lastX = x;
+        lastY = y;
+        travelled = 0.0f;
+        lastStampX = Integer.MIN_VALUE;
+        
+        addStamp(x, y);
+    }
+    
+    /**
+     * Continues stroke to given cell, adding stamps along the way.
+     */
+    public void moveTo(int x, int y)
+    {
+        float dx = x - lastX;
+        float dy = y - lastY;
+        float length = (float) Math.sqrt(dx*dx + dy*dy);
+        
+        if(length == 0.0f) return;
+        
+        float distance = spacing - travelled;
+        
+        while(distance <= length)
+        {
+            float t = distance / length;
+            
+            addStamp(Math.round(lastX + t * dx), Math.round(lastY + t * dy));
+            distance += spacing;
+        }
+        
+        travelled = length - (distance - spacing);
+        lastX = x;
+        lastY = y;
+    }
+    
+    public boolean isEmpty()
+    {
+        return head == tail;
+    }
+    
+    /**
+     * Removes up to max queued stamps, storing x and y alternately in
+     * given array. Returns number of stamps.
+     */
+    public int drain(int[] output, int max)
+    {
+        int count = Math.min(max, (tail - head) / 2);
+        
+        System.arraycopy(stamps, head, output, 0, 2 * count);
+        head += 2 * count;
+        
+        if(head == tail)
+        {
+            head = 0;
+            tail = 0;
+        }
+        
+        return count;
+    }
+    
+    private void addStamp(int x, int y)
+    {
+        // successive stamps rounded to the same cell are skipped
+        if(x == lastStampX && y == lastStampY) return;
+        
+        if(tail + 2 > stamps.length)
+        {
+            if(head > 0)
+            {
+                System.arraycopy(stamps, head, stamps, 0, tail - head);
+                tail -= head;
+                head = 0;
+            }
+            
+            if(tail + 2 > stamps.length)
+                stamps = Arrays.copyOf(stamps, 2 * stamps.length);
+        }
+        
+        stamps[tail++] = x;
+        stamps[tail++] = y;
+        
+        lastStampX = x;
+        lastStampY = y;
+    }
+}
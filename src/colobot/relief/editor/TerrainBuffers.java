@@ -0,0 +1,199 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Vertex and index buffer objects of terrain mesh. Static streams and
+ * index buffers are uploaded once, dynamic streams are updated only in
+ * byte ranges planned by {@link UploadPlanner} from chunk dirty regions.
+ * All methods require current GL context.
+ */
+public class TerrainBuffers
+{
+    // unchanged bytes that may be sent to join two ranges into one upload
+    public static final int MAX_GAP = 4096;
+    
+    private final TerrainMesh mesh;
+    private final UploadPlanner planner;
+    private final int[] grids;
+    private final int[] vertices;
+    private final ByteBuffer[] views;
+    
+    // shared buffers are uploaded once, keyed by identity
+    private final Map<FloatBuffer, Integer> gridBuffers = new IdentityHashMap<>();
+    private final Map<ShortBuffer, Integer> elementBuffers = new IdentityHashMap<>();
+    
+    private int uploadedBytes = 0;
+    
+    
+    public TerrainBuffers(TerrainMesh mesh)
+    {
+        this.mesh = mesh;
+        
+        VertexLayout layout = mesh.getLayout();
+        TerrainChunk[] chunks = mesh.getChunks();
+        
+        planner = new UploadPlanner(layout.getDynamicStride(), MAX_GAP);
+        grids = new int[chunks.length];
+        vertices = new int[chunks.length];
+        views = new ByteBuffer[chunks.length];
+        
+        for(int i=0; i<chunks.length; i++)
+        {
+            FloatBuffer grid = chunks[i].getGrid();
+            Integer id = gridBuffers.get(grid);
+            
+            if(id == null)
+            {
+                id = glGenBuffers();
+                glBindBuffer(GL_ARRAY_BUFFER, id);
+                glBufferData(GL_ARRAY_BUFFER, grid, GL_STATIC_DRAW);
+                gridBuffers.put(grid, id);
+            }
+            
+            grids[i] = id;
+            views[i] = chunks[i].getVertices().duplicate();
+            
+            // whole stream goes now, so earlier changes need no upload
+            chunks[i].getDirty().clear();
+            
+            vertices[i] = glGenBuffers();
+            glBindBuffer(GL_ARRAY_BUFFER, vertices[i]);
+            glBufferData(GL_ARRAY_BUFFER, views[i], GL_DYNAMIC_DRAW);
+        }
+        
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+    
+    public TerrainMesh getMesh()
+    {
+        return mesh;
+    }
+    
+    /**
+     * Sends changed parts of dynamic streams to vertex buffers.
+     * Returns number of bytes uploaded.
+     */
+    public int upload()
+    {
+        TerrainChunk[] chunks = mesh.getChunks();
+        
+        uploadedBytes = 0;
+        
+        for(int i=0; i<chunks.length; i++)
+        {
+            int count = planner.plan(chunks[i].getColumns(), chunks[i].getRows(),
+                    chunks[i].getDirty());
+            
+            if(count == 0) continue;
+            
+            glBindBuffer(GL_ARRAY_BUFFER, vertices[i]);
+            
+            for(int range=0; range<count; range++)
+            {
+                int offset = planner.getOffset(range);
+                int length = planner.getLength(range);
+                
+                views[i].limit(offset + length).position(offset);
+                glBufferSubData(GL_ARRAY_BUFFER, offset, views[i]);
+            }
+            
+            uploadedBytes += planner.getBytes();
+        }
+        
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        
+        return uploadedBytes;
+    }
+    
+    /**
+     * Returns number of bytes sent by last upload.
+     */
+    public int getUploadedBytes()
+    {
+        return uploadedBytes;
+    }
+    
+    /**
+     * Draws chunk with given indices. Shader must be active.
+     */
+    public void draw(int chunk, ShortBuffer elements, TerrainShader shader)
+    {
+        TerrainChunk terrain = mesh.getChunks()[chunk];
+        VertexLayout layout = mesh.getLayout();
+        int stride = layout.getDynamicStride();
+        
+        shader.setOffset(terrain.getOffsetX(), terrain.getOffsetY());
+        
+        glBindBuffer(GL_ARRAY_BUFFER, grids[chunk]);
+        glVertexAttribPointer(TerrainShader.GRID, 2, GL_FLOAT, false,
+                VertexLayout.STATIC_STRIDE, 0);
+        
+        glBindBuffer(GL_ARRAY_BUFFER, vertices[chunk]);
+        glVertexAttribPointer(TerrainShader.HEIGHT, 1, GL_FLOAT, false,
+                stride, VertexLayout.HEIGHT_OFFSET);
+        glVertexAttribPointer(TerrainShader.NORMAL,
+                TerrainShader.getNormalSize(layout),
+                TerrainShader.getNormalType(layout),
+                TerrainShader.isNormalized(layout),
+                stride, VertexLayout.NORMAL_OFFSET);
+        
+        int primitive = mesh.getIndexMode().isStrip()
+                ? GL_TRIANGLE_STRIP : GL_TRIANGLES;
+        
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, getElementBuffer(elements));
+        glDrawElements(primitive, elements.remaining(), GL_UNSIGNED_SHORT, 0);
+    }
+    
+    /**
+     * Unbinds buffers, so that client side arrays can be used again.
+     */
+    public void unbind()
+    {
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+    
+    /**
+     * Deletes all buffer objects.
+     */
+    public void release()
+    {
+        for(int id : gridBuffers.values())
+            glDeleteBuffers(id);
+        
+        for(int id : elementBuffers.values())
+            glDeleteBuffers(id);
+        
+        for(int id : vertices)
+            glDeleteBuffers(id);
+        
+        gridBuffers.clear();
+        elementBuffers.clear();
+    }
+    
+    private int getElementBuffer(ShortBuffer elements)
+    {
+        Integer id = elementBuffers.get(elements);
+        
+        if(id == null)
+        {
+            id = glGenBuffers();
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, id);
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, elements, GL_STATIC_DRAW);
+            elementBuffers.put(elements, id);
+        }
+        
+        return id;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Rectangular piece of terrain mesh with its own vertices, so that
+ * vertex indices stay local and fit in 16 bits. Vertices are stored
+ * in two streams described by {@link VertexLayout}: static grid positions
+ * shared with other chunks of the same size and dynamic heights and normals.
+ */
+public class TerrainChunk
+{
+    private final int offsetX, offsetY;
+    private final int columns, rows;
+    private final VertexLayout layout;
+    private final FloatBuffer grid;
+    private final ByteBuffer vertices;
+    private final ShortBuffer elements;
+    
+    // vertices changed since last upload, in local coordinates
+    private final DirtyRegion dirty = new DirtyRegion();
+    
+    // level of detail data, recalculated lazily after height changes
+    private final int maxLevel;
+    private final float[] errors;
+    private float minHeight, maxHeight;
+    private boolean errorsValid = false;
+    
+    
+    public TerrainChunk(int offsetX, int offsetY, int columns, int rows,
+            VertexLayout layout, FloatBuffer grid, ShortBuffer elements)
+    {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.columns = columns;
+        this.rows = rows;
+        this.layout = layout;
+        this.grid = grid;
+        this.elements = elements;
+        
+        vertices = layout.createDynamic((columns+1) * (rows+1));
+        
+        int level = 0;
+        
+        while(columns % (2 << level) == 0 && rows % (2 << level) == 0)
+            level++;
+        
+        maxLevel = level;
+        errors = new float[maxLevel + 1];
+    }
+    
+    public int getOffsetX()
+    {
+        return offsetX;
+    }
+    
+    public int getOffsetY()
+    {
+        return offsetY;
+    }
+    
+    public int getColumns()
+    {
+        return columns;
+    }
+    
+    public int getRows()
+    {
+        return rows;
+    }
+    
+    public VertexLayout getLayout()
+    {
+        return layout;
+    }
+    
+    /**
+     * Returns static stream with local grid positions of vertices.
+     */
+    public FloatBuffer getGrid()
+    {
+        return grid;
+    }
+    
+    /**
+     * Returns dynamic stream with heights and normals of vertices.
+     */
+    public ByteBuffer getVertices()
+    {
+        return vertices;
+    }
+    
+    public ShortBuffer getElements()
+    {
+        return elements;
+    }
+    
+    /**
+     * Returns region of vertices (local coordinates) changed since
+     * dynamic stream was last uploaded.
+     */
+    public DirtyRegion getDirty()
+    {
+        return dirty;
+    }
+    
+    /**
+     * Marks vertices in rectangle given in global relief coordinates
+     * as changed. Rectangle is clipped to this chunk.
+     */
+    public void markDirty(int minX, int minY, int maxX, int maxY)
+    {
+        minX = Math.max(minX - offsetX, 0);
+        minY = Math.max(minY - offsetY, 0);
+        maxX = Math.min(maxX - offsetX, columns);
+        maxY = Math.min(maxY - offsetY, rows);
+        
+        if(minX <= maxX && minY <= maxY)
+            dirty.add(minX, minY, maxX, maxY);
+    }
+    
+    /**
+     * Returns coarsest level of detail. Level n uses every 2^n-th vertex.
+     */
+    public int getMaxLevel()
+    {
+        return maxLevel;
+    }
+    
+    /**
+     * Returns maximum vertical distance between full detail surface
+     * and surface drawn at given level.
+     */
+    public float getError(int level)
+    {
+        if(!errorsValid) updateErrors();
+        
+        return errors[level];
+    }
+    
+    public float getMinHeight()
+    {
+        if(!errorsValid) updateErrors();
+        
+        return minHeight;
+    }
+    
+    public float getMaxHeight()
+    {
+        if(!errorsValid) updateErrors();
+        
+        return maxHeight;
+    }
+    
+    /**
+     * Sets height of vertex given in global relief coordinates.
+     */
+    public void setHeight(int x, int y, float value)
+    {
+        layout.putHeight(vertices, getVertex(x, y), value);
+        errorsValid = false;
+    }
+    
+    /**
+     * Sets normal of vertex given in global relief coordinates.
+     */
+    public void setNormal(int x, int y, float nx, float ny, float nz)
+    {
+        layout.putNormal(vertices, getVertex(x, y), nx, ny, nz);
+    }
+    
+    private int getVertex(int x, int y)
+    {
+        return (x - offsetX) + (columns + 1) * (y - offsetY);
+    }
+    
+    private float getLocalHeight(int i, int j)
+    {
+        return layout.getHeight(vertices, i + (columns + 1) * j);
+    }
+    
+    private void updateErrors()
+    {
+        minHeight = Float.POSITIVE_INFINITY;
+        maxHeight = Float.NEGATIVE_INFINITY;
+        
+        for(int j=0; j<=rows; j++)
+        {
+            for(int i=0; i<=columns; i++)
+            {
+                float h = getLocalHeight(i, j);
+                
+                minHeight = Math.min(minHeight, h);
+                maxHeight = Math.max(maxHeight, h);
+            }
+        }
+        
+        errors[0] = 0.0f;
+        
+        for(int level=1; level<=maxLevel; level++)
+        {
+            int step = 1 << level;
+            float error = errors[level - 1];
+            
+            // compare skipped vertices with bilinear interpolation of cell
+            for(int i=0; i<columns; i+=step)
+            {
+                for(int j=0; j<rows; j+=step)
+                {
+                    float h00 = getLocalHeight(i, j);
+                    float h10 = getLocalHeight(i+step, j);
+                    float h01 = getLocalHeight(i, j+step);
+                    float h11 = getLocalHeight(i+step, j+step);
+                    
+                    for(int u=0; u<=step; u++)
+                    {
+                        for(int v=0; v<=step; v++)
+                        {
+                            float fx = (float) u / step;
+                            float fy = (float) v / step;
+                            
+                            float h = (1-fx) * (1-fy) * h00 + fx * (1-fy) * h10
+                                    + (1-fx) * fy * h01 + fx * fy * h11;
+                            
+                            error = Math.max(error,
+                                    Math.abs(h - getLocalHeight(i+u, j+v)));
+                        }
+                    }
+                }
+            }
+            
+            errors[level] = error;
+        }
+        
+        errorsValid = true;
+    }
+}
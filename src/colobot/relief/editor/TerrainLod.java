@@ -0,0 +1,171 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Level of detail selection for terrain mesh (geomipmapping).
+ * 
+ * Each chunk gets the coarsest level whose geometric error projected on
+ * screen stays below threshold. Index buffers for every combination of
+ * chunk size, level and neighbour levels are built once and cached.
+ */
+public class TerrainLod
+{
+    private final TerrainMesh mesh;
+    private final int[] levels;
+    private final ShortBuffer[] elements;
+    private final Map<Long, ShortBuffer> cache = new HashMap<>();
+    
+    private float threshold = 2.0f;
+    private int triangles = 0;
+    
+    
+    public TerrainLod(TerrainMesh mesh)
+    {
+        this.mesh = mesh;
+        this.levels = new int[mesh.getChunks().length];
+        this.elements = new ShortBuffer[mesh.getChunks().length];
+    }
+    
+    public TerrainMesh getMesh()
+    {
+        return mesh;
+    }
+    
+    public float getThreshold()
+    {
+        return threshold;
+    }
+    
+    /**
+     * Sets maximum allowed screen space error in pixels.
+     */
+    public void setThreshold(float threshold)
+    {
+        this.threshold = threshold;
+    }
+    
+    public int getLevel(int chunk)
+    {
+        return levels[chunk];
+    }
+    
+    public ShortBuffer getElements(int chunk)
+    {
+        return elements[chunk];
+    }
+    
+    /**
+     * Returns number of triangles selected in last update.
+     */
+    public int getTriangleCount()
+    {
+        return triangles;
+    }
+    
+    /**
+     * Selects levels of detail for given camera position.
+     * 
+     * @param pixelsPerUnit screen height divided by 2 * tan(fov / 2)
+     */
+    public void update(float x, float y, float z, float pixelsPerUnit)
+    {
+        TerrainChunk[] chunks = mesh.getChunks();
+        
+        for(int i=0; i<chunks.length; i++)
+        {
+            levels[i] = selectLevel(chunks[i], x, y, z, pixelsPerUnit);
+        }
+        
+        triangles = 0;
+        
+        for(int cy=0; cy<mesh.getChunksY(); cy++)
+        {
+            for(int cx=0; cx<mesh.getChunksX(); cx++)
+            {
+                int index = cx + mesh.getChunksX() * cy;
+                TerrainChunk chunk = chunks[index];
+                
+                int step = 1 << levels[index];
+                
+                // edges next to coarser chunks use neighbour's step
+                int left = Math.max(step, getStep(cx-1, cy));
+                int right = Math.max(step, getStep(cx+1, cy));
+                int top = Math.max(step, getStep(cx, cy-1));
+                int bottom = Math.max(step, getStep(cx, cy+1));
+                
+                elements[index] = getElements(chunk.getColumns(),
+                        chunk.getRows(), step, left, right, top, bottom);
+                
+                triangles += LodIndexBuilder.getTriangleCount(elements[index],
+                        mesh.getIndexMode());
+            }
+        }
+    }
+    
+    private int selectLevel(TerrainChunk chunk, float x, float y, float z,
+            float pixelsPerUnit)
+    {
+        // distance from camera to chunk bounding box
+        float minX = 5.0f * chunk.getOffsetX();
+        float minZ = 5.0f * chunk.getOffsetY();
+        float maxX = 5.0f * (chunk.getOffsetX() + chunk.getColumns());
+        float maxZ = 5.0f * (chunk.getOffsetY() + chunk.getRows());
+        
+        float dx = Math.max(Math.max(minX - x, x - maxX), 0);
+        float dy = Math.max(Math.max(chunk.getMinHeight() - y,
+                y - chunk.getMaxHeight()), 0);
+        float dz = Math.max(Math.max(minZ - z, z - maxZ), 0);
+        
+        float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+        
+        int level = 0;
+        
+        while(level < chunk.getMaxLevel())
+        {
+            float error = chunk.getError(level + 1) * pixelsPerUnit;
+            
+            if(error > threshold * distance) break;
+            
+            level++;
+        }
+        
+        return level;
+    }
+    
+    private int getStep(int cx, int cy)
+    {
+        if(cx < 0 || cx >= mesh.getChunksX()) return 1;
+        if(cy < 0 || cy >= mesh.getChunksY()) return 1;
+        
+        return 1 << levels[cx + mesh.getChunksX() * cy];
+    }
+    
+    private ShortBuffer getElements(int columns, int rows, int step,
+            int left, int right, int top, int bottom)
+    {
+        long key = columns;
+        key = (key << 7) | rows;
+        key = (key << 7) | step;
+        key = (key << 7) | left;
+        key = (key << 7) | right;
+        key = (key << 7) | top;
+        key = (key << 7) | bottom;
+        
+        ShortBuffer buffer = cache.get(key);
+        
+        if(buffer == null)
+        {
+            buffer = LodIndexBuilder.build(columns, rows, step,
+                    left, right, top, bottom, mesh.getIndexMode());
+            cache.put(key, buffer);
+        }
+        
+        return buffer;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Terrain mesh for relief of any size, split into chunks of
+ * CHUNK_SIZE x CHUNK_SIZE cells. Neighbouring chunks share border vertices.
+ */
+public class TerrainMesh
+{
+    public static final int CHUNK_SIZE = 64;
+    
+    // rectangles with fewer cells are processed on calling thread
+    public static final int PARALLEL_THRESHOLD = 64 * 1024;
+    
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    
+    private final int width, height;
+    private final VertexLayout layout;
+    private final LodIndexBuilder.Mode mode;
+    private final float[] heights;
+    private final int chunksX, chunksY;
+    private final TerrainChunk[] chunks;
+    
+    
+    public TerrainMesh(int width, int height)
+    {
+        this(width, height, new VertexLayout(VertexLayout.Normals.BYTE),
+                LodIndexBuilder.Mode.BLOCKS);
+    }
+    
+    public TerrainMesh(int width, int height, VertexLayout layout,
+            LodIndexBuilder.Mode mode)
+    {
+        if(width < 2 || height < 2)
+            throw new IllegalArgumentException("Invalid mesh size");
+        
+        this.width = width;
+        this.height = height;
+        this.layout = layout;
+        this.mode = mode;
+        this.heights = new float[width * height];
+        
+        chunksX = (width - 2) / CHUNK_SIZE + 1;
+        chunksY = (height - 2) / CHUNK_SIZE + 1;
+        chunks = new TerrainChunk[chunksX * chunksY];
+        
+        // chunks of the same size share index buffer and static stream
+        Map<Integer, ShortBuffer> elements = new HashMap<>();
+        Map<Integer, FloatBuffer> grids = new HashMap<>();
+        
+        for(int cy=0; cy<chunksY; cy++)
+        {
+            for(int cx=0; cx<chunksX; cx++)
+            {
+                int x = cx * CHUNK_SIZE;
+                int y = cy * CHUNK_SIZE;
+                int columns = Math.min(CHUNK_SIZE, width - 1 - x);
+                int rows = Math.min(CHUNK_SIZE, height - 1 - y);
+                
+                Integer key = columns + (CHUNK_SIZE + 1) * rows;
+                ShortBuffer buffer = elements.get(key);
+                
+                if(buffer == null)
+                {
+                    buffer = LodIndexBuilder.build(columns, rows, mode);
+                    elements.put(key, buffer);
+                    grids.put(key, VertexLayout.createStatic(columns, rows));
+                }
+                
+                chunks[cx + chunksX * cy] = new TerrainChunk(x, y,
+                        columns, rows, layout, grids.get(key), buffer);
+            }
+        }
+    }
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    public VertexLayout getLayout()
+    {
+        return layout;
+    }
+    
+    /**
+     * Returns ordering of chunk indices (triangle list or strip).
+     */
+    public LodIndexBuilder.Mode getIndexMode()
+    {
+        return mode;
+    }
+    
+    public int getChunksX()
+    {
+        return chunksX;
+    }
+    
+    public int getChunksY()
+    {
+        return chunksY;
+    }
+    
+    public TerrainChunk[] getChunks()
+    {
+        return chunks;
+    }
+    
+    public float getHeight(int x, int y)
+    {
+        return heights[x + width * y];
+    }
+    
+    public void setHeight(int x, int y, float value)
+    {
+        heights[x + width * y] = value;
+        
+        int maxX = Math.min(x / CHUNK_SIZE, chunksX - 1);
+        int maxY = Math.min(y / CHUNK_SIZE, chunksY - 1);
+        
+        for(int cy=Math.max(y-1, 0) / CHUNK_SIZE; cy<=maxY; cy++)
+        {
+            for(int cx=Math.max(x-1, 0) / CHUNK_SIZE; cx<=maxX; cx++)
+            {
+                chunks[cx + chunksX * cy].setHeight(x, y, value);
+            }
+        }
+    }
+    
+    public void setNormal(int x, int y, float nx, float ny, float nz)
+    {
+        int maxX = Math.min(x / CHUNK_SIZE, chunksX - 1);
+        int maxY = Math.min(y / CHUNK_SIZE, chunksY - 1);
+        
+        for(int cy=Math.max(y-1, 0) / CHUNK_SIZE; cy<=maxY; cy++)
+        {
+            for(int cx=Math.max(x-1, 0) / CHUNK_SIZE; cx<=maxX; cx++)
+            {
+                chunks[cx + chunksX * cy].setNormal(x, y, nx, ny, nz);
+            }
+        }
+    }
+    
+    /**
+     * Sets heights of cells covered by patch. Sample value v becomes
+     * height scale * (255 - v) - water; empty patch sets zero heights.
+     */
+    public void applyPatch(final HeightPatch patch, final float scale,
+            final float water)
+    {
+        final int x1 = patch.getX();
+        final int x2 = x1 + patch.getWidth() - 1;
+        
+        forEachRow(x1, patch.getY(), x2, patch.getY() + patch.getHeight() - 1,
+                new RowTask()
+        {
+            @Override
+            public void run(int minY, int maxY)
+            {
+                for(int j=minY; j<=maxY; j++)
+                {
+                    for(int i=x1; i<=x2; i++)
+                    {
+                        float value = 0.0f;
+                        
+                        if(!patch.isEmpty())
+                            value = scale * (255 - patch.get(i, j)) - water;
+                        
+                        setHeight(i, j, value);
+                    }
+                }
+            }
+        });
+        
+        markDirty(x1, patch.getY(), x2, patch.getY() + patch.getHeight() - 1);
+    }
+    
+    /**
+     * Recalculates normals of vertices in given rectangle (inclusive).
+     */
+    public void updateNormals(final int minX, int minY, final int maxX, int maxY)
+    {
+        forEachRow(minX, minY, maxX, maxY, new RowTask()
+        {
+            @Override
+            public void run(int minY, int maxY)
+            {
+                updateNormalRows(minX, minY, maxX, maxY);
+            }
+        });
+        
+        markDirty(minX, minY, maxX, maxY);
+    }
+    
+    /**
+     * Marks vertices in rectangle (inclusive) as changed in all chunks
+     * containing them.
+     */
+    public void markDirty(int minX, int minY, int maxX, int maxY)
+    {
+        if(minX > maxX || minY > maxY) return;
+        
+        int cx1 = Math.max(minX - 1, 0) / CHUNK_SIZE;
+        int cy1 = Math.max(minY - 1, 0) / CHUNK_SIZE;
+        int cx2 = Math.min(maxX / CHUNK_SIZE, chunksX - 1);
+        int cy2 = Math.min(maxY / CHUNK_SIZE, chunksY - 1);
+        
+        for(int cy=cy1; cy<=cy2; cy++)
+        {
+            for(int cx=cx1; cx<=cx2; cx++)
+            {
+                chunks[cx + chunksX * cy].markDirty(minX, minY, maxX, maxY);
+            }
+        }
+    }
+    
+    private void updateNormalRows(int minX, int minY, int maxX, int maxY)
+    {
+        for(int j=minY; j<=maxY; j++)
+        {
+            for(int i=minX; i<=maxX; i++)
+            {
+                // neighbours outside the map are clamped to the border
+                float h = getHeight(i, j);
+                float x1 = h - getHeight(Math.max(i-1, 0), j);
+                float x2 = h - getHeight(Math.min(i+1, width-1), j);
+                float y1 = h - getHeight(i, Math.max(j-1, 0));
+                float y2 = h - getHeight(i, Math.min(j+1, height-1));
+                
+                float nx = x1 - x2;
+                float ny = 5;
+                float nz = y1 - y2;
+                
+                float dist = 1 / (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
+                
+                nx *= dist;
+                ny *= dist;
+                nz *= dist;
+                
+                setNormal(i, j, nx, ny, nz);
+            }
+        }
+    }
+    
+    /**
+     * Runs task over rows of rectangle. Large rectangles are split into
+     * row ranges processed in parallel; every vertex is still computed by
+     * the same code, so result does not depend on the split.
+     */
+    private static void forEachRow(int minX, int minY, int maxX, int maxY,
+            RowTask task)
+    {
+        int columns = maxX - minX + 1;
+        
+        if(columns <= 0 || minY > maxY) return;
+        
+        if((long) columns * (maxY - minY + 1) < PARALLEL_THRESHOLD)
+            task.run(minY, maxY);
+        else
+            POOL.invoke(new RowAction(task, minY, maxY,
+                    Math.max(PARALLEL_THRESHOLD / columns, 1)));
+    }
+    
+    private interface RowTask
+    {
+        public void run(int minY, int maxY);
+    }
+    
+    private static class RowAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final RowTask task;
+        private final int minY, maxY;
+        private final int rows;
+        
+        
+        public RowAction(RowTask task, int minY, int maxY, int rows)
+        {
+            this.task = task;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.rows = rows;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if(maxY - minY + 1 <= rows)
+            {
+                task.run(minY, maxY);
+            }
+            else
+            {
+                int middle = (minY + maxY) / 2;
+                
+                invokeAll(new RowAction(task, minY, middle, rows),
+                        new RowAction(task, middle + 1, maxY, rows));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Shader drawing terrain chunks from split vertex streams. It assembles
+ * position and texcoord from chunk offset, grid and height, and reproduces
+ * fixed function lighting of light 0 with color material and texture.
+ */
+public class TerrainShader
+{
+    public static final int GRID = 0;
+    public static final int HEIGHT = 1;
+    public static final int NORMAL = 2;
+    
+    // from GL33, normals in VertexLayout.Normals.PACKED format
+    private static final int GL_INT_2_10_10_10_REV = 0x8D9F;
+    
+    private static final String VERTEX_SOURCE = ""
+            + "uniform vec2 offset;\n"
+            + "attribute vec2 grid;\n"
+            + "attribute float height;\n"
+            + "attribute vec3 normal;\n"
+            + "varying vec4 color;\n"
+            + "varying vec2 texcoord;\n"
+            + "void main()\n"
+            + "{\n"
+            + "    vec2 cell = offset + grid;\n"
+            + "    vec3 n = normalize(gl_NormalMatrix * normal);\n"
+            + "    vec3 l = normalize(gl_LightSource[0].position.xyz);\n"
+            + "    vec4 light = gl_LightModel.ambient + gl_LightSource[0].ambient\n"
+            + "            + max(dot(n, l), 0.0) * gl_LightSource[0].diffuse;\n"
+            + "    color = vec4(gl_Color.rgb * light.rgb, gl_Color.a);\n"
+            + "    texcoord = cell;\n"
+            + "    gl_Position = gl_ModelViewProjectionMatrix\n"
+            + "            * vec4(5.0 * cell.x, height, 5.0 * cell.y, 1.0);\n"
+            + "}\n";
+    
+    private static final String FRAGMENT_SOURCE = ""
+            + "uniform sampler2D map;\n"
+            + "varying vec4 color;\n"
+            + "varying vec2 texcoord;\n"
+            + "void main()\n"
+            + "{\n"
+            + "    gl_FragColor = color * texture2D(map, texcoord);\n"
+            + "}\n";
+    
+    private int program = 0;
+    private int offset;
+    
+    
+    /**
+     * Compiles and links shader program. Requires current GL context.
+     */
+    public void create()
+    {
+        int vertex = compile(GL_VERTEX_SHADER, VERTEX_SOURCE);
+        int fragment = compile(GL_FRAGMENT_SHADER, FRAGMENT_SOURCE);
+        
+        program = glCreateProgram();
+        glAttachShader(program, vertex);
+        glAttachShader(program, fragment);
+        glBindAttribLocation(program, GRID, "grid");
+        glBindAttribLocation(program, HEIGHT, "height");
+        glBindAttribLocation(program, NORMAL, "normal");
+        glLinkProgram(program);
+        
+        glDeleteShader(vertex);
+        glDeleteShader(fragment);
+        
+        if(glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE)
+        {
+            String log = glGetProgramInfoLog(program,
+                    glGetProgrami(program, GL_INFO_LOG_LENGTH));
+            
+            glDeleteProgram(program);
+            program = 0;
+            
+            throw new IllegalStateException("Terrain shader link failed: " + log);
+        }
+        
+        offset = glGetUniformLocation(program, "offset");
+        
+        glUseProgram(program);
+        glUniform1i(glGetUniformLocation(program, "map"), 0);
+        glUseProgram(0);
+    }
+    
+    public void destroy()
+    {
+        if(program != 0)
+            glDeleteProgram(program);
+        
+        program = 0;
+    }
+    
+    /**
+     * Activates program and enables vertex streams.
+     */
+    public void begin()
+    {
+        glUseProgram(program);
+        glEnableVertexAttribArray(GRID);
+        glEnableVertexAttribArray(HEIGHT);
+        glEnableVertexAttribArray(NORMAL);
+    }
+    
+    public void end()
+    {
+        glDisableVertexAttribArray(NORMAL);
+        glDisableVertexAttribArray(HEIGHT);
+        glDisableVertexAttribArray(GRID);
+        glUseProgram(0);
+    }
+    
+    /**
+     * Sets offset of chunk being drawn, in relief cells.
+     */
+    public void setOffset(int x, int y)
+    {
+        glUniform2f(offset, x, y);
+    }
+    
+    /**
+     * Returns number of components of normal attribute.
+     */
+    public static int getNormalSize(VertexLayout layout)
+    {
+        return layout.getNormals() == VertexLayout.Normals.PACKED ? 4 : 3;
+    }
+    
+    /**
+     * Returns whether integer normals are mapped to range [-1, 1].
+     */
+    public static boolean isNormalized(VertexLayout layout)
+    {
+        return layout.getNormals() != VertexLayout.Normals.FLOAT;
+    }
+    
+    /**
+     * Returns GL type of normal attribute.
+     */
+    public static int getNormalType(VertexLayout layout)
+    {
+        switch(layout.getNormals())
+        {
+            case BYTE:
+                return GL_BYTE;
+            case PACKED:
+                return GL_INT_2_10_10_10_REV;
+            default:
+                return GL_FLOAT;
+        }
+    }
+    
+    private static int compile(int type, String source)
+    {
+        int shader = glCreateShader(type);
+        glShaderSource(shader, source);
+        glCompileShader(shader);
+        
+        if(glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE)
+        {
+            String log = glGetShaderInfoLog(shader,
+                    glGetShaderi(shader, GL_INFO_LOG_LENGTH));
+            
+            glDeleteShader(shader);
+            
+            throw new IllegalStateException("Terrain shader compile failed: " + log);
+        }
+        
+        return shader;
+    }
+}
@@ -0,0 +1,449 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Disk cache of decoded textures with mipmaps. Entry of texture file is
+ * named after hash of its path. Entry is valid if modification time and
+ * length of the file are unchanged or, if they are not, when hash of file
+ * contents still matches.
+ *
+ * Uncompressed entries are memory-mapped, so loading them costs only page
+ * faults; compressed entries are inflated into new buffer. Least recently
+ * used entries are deleted when cache grows over its size limit.
+ * Methods can be called from many threads.
+ */
+public class TextureCache
+{
+    public static final String EXTENSION = "tex";
+    
+    private static final int MAGIC = 0x43525458;    // "CRTX"
+    private static final int VERSION = 1;
+    private static final int HASH_SIZE = 20;
+    private static final int HEADER_SIZE = 7 * 4 + 2 * 8 + HASH_SIZE;
+    private static final int MODIFIED_OFFSET = 5 * 4;
+    
+    // flags
+    private static final int DEFLATE = 1;
+    private static final int LITTLE_ENDIAN = 2;
+    
+    private final File directory;
+    private final long maxSize;
+    private final boolean compress;
+    
+    
+    /**
+     * Creates cache in directory with limit of total size in bytes.
+     * Entries are deflated if compress is true.
+     */
+    public TextureCache(File directory, long maxSize, boolean compress)
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.compress = compress;
+    }
+    
+    public File getDirectory()
+    {
+        return directory;
+    }
+    
+    /**
+     * Returns cached texture or decodes file and stores it in cache.
+     * Failure to use cache is reported, but does not stop loading.
+     */
+    public TextureImage load(File file) throws IOException
+    {
+        File entry = getEntry(file);
+        long modified = file.lastModified();
+        long length = file.length();
+        byte[] hash = null;
+        
+        try
+        {
+            if(entry.exists())
+            {
+                try(RandomAccessFile raf = new RandomAccessFile(entry, "rw"))
+                {
+                    FileChannel channel = raf.getChannel();
+                    Header header = Header.read(channel);
+                    
+                    if(header != null && header.length == length)
+                    {
+                        boolean valid = header.modified == modified;
+                        
+                        // touched file, contents decide
+                        if(!valid)
+                        {
+                            hash = hash(file);
+                            valid = Arrays.equals(hash, header.hash);
+                            
+                            if(valid)
+                                channel.write(ByteBuffer.allocate(8)
+                                        .putLong(0, modified), MODIFIED_OFFSET);
+                        }
+                        
+                        if(valid)
+                        {
+                            // keeps entry recent for eviction
+                            entry.setLastModified(System.currentTimeMillis());
+                            
+                            return read(channel, header);
+                        }
+                    }
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println(entry + ": " + e.getLocalizedMessage());
+        }
+        
+        TextureImage image = TextureImage.read(file);
+        
+        try
+        {
+            if(hash == null)
+                hash = hash(file);
+            
+            write(entry, image, modified, length, hash);
+            trim();
+        }
+        catch(IOException e)
+        {
+            System.err.println(entry + ": " + e.getLocalizedMessage());
+        }
+        
+        return image;
+    }
+    
+    /**
+     * Returns total size of cache entries in bytes.
+     */
+    public long getSize()
+    {
+        long size = 0;
+        
+        for(File entry : getEntries())
+            size += entry.length();
+        
+        return size;
+    }
+    
+    /**
+     * Deletes least recently used entries until cache fits in its limit.
+     */
+    public synchronized void trim()
+    {
+        File[] entries = getEntries();
+        long size = 0;
+        
+        for(File entry : entries)
+            size += entry.length();
+        
+        if(size <= maxSize) return;
+        
+        Arrays.sort(entries, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        
+        for(int i=0; i<entries.length && size > maxSize; i++)
+        {
+            long length = entries[i].length();
+            
+            if(entries[i].delete())
+                size -= length;
+        }
+    }
+    
+    private File[] getEntries()
+    {
+        File[] entries = directory.listFiles();
+        
+        if(entries == null) return new File[0];
+        
+        int count = 0;
+        
+        for(File entry : entries)
+        {
+            if(entry.getName().endsWith("." + EXTENSION))
+                entries[count++] = entry;
+        }
+        
+        return Arrays.copyOf(entries, count);
+    }
+    
+    private File getEntry(File file) throws IOException
+    {
+        String path = file.getCanonicalPath();
+        
+        return new File(directory, toHex(digest().digest(
+                path.getBytes(StandardCharsets.UTF_8))) + "." + EXTENSION);
+    }
+    
+    private static TextureImage read(FileChannel channel, Header header)
+            throws IOException
+    {
+        int pixels = TextureImage.getSize(header.width, header.height);
+        long offset = HEADER_SIZE;
+        
+        if(channel.size() < offset + header.stored)
+            throw new IOException("Invalid cache entry (too short)");
+        
+        ByteBuffer data;
+        
+        if((header.flags & DEFLATE) == 0)
+        {
+            if(header.stored != 4L * pixels)
+                throw new IOException("Invalid cache entry (bad size)");
+            
+            // mapping stays valid after channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, offset, header.stored);
+        }
+        else
+        {
+            ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset, header.stored);
+            byte[] input = new byte[(int) header.stored];
+            stored.get(input);
+            
+            data = ByteBuffer.allocateDirect(4 * pixels);
+            inflate(input, data);
+        }
+        
+        IntBuffer ints = data.order(ByteOrder.nativeOrder()).asIntBuffer();
+        
+        return new TextureImage(header.width, header.height, ints);
+    }
+    
+    private void write(File entry, TextureImage image, long modified,
+            long length, byte[] hash) throws IOException
+    {
+        if(!directory.exists() && !directory.mkdirs())
+            throw new IOException("Cannot create cache directory");
+        
+        IntBuffer pixels = image.getData();
+        ByteBuffer data = ByteBuffer.allocate(4 * pixels.remaining())
+                .order(ByteOrder.nativeOrder());
+        data.asIntBuffer().put(pixels);
+        
+        int flags = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                ? LITTLE_ENDIAN : 0;
+        
+        if(compress)
+        {
+            data = deflate(data.array());
+            flags |= DEFLATE;
+        }
+        
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(flags);
+        header.putInt(image.getWidth()).putInt(image.getHeight());
+        header.putLong(modified).putLong(length).put(hash);
+        header.putInt(data.remaining()).putInt(0);
+        header.flip();
+        
+        // written whole to temporary file, so readers never see half entry
+        File temp = File.createTempFile(entry.getName(), ".tmp", directory);
+        boolean done = false;
+        
+        try
+        {
+            try(RandomAccessFile raf = new RandomAccessFile(temp, "rw"))
+            {
+                FileChannel channel = raf.getChannel();
+                
+                while(header.hasRemaining())
+                    channel.write(header);
+                
+                while(data.hasRemaining())
+                    channel.write(data);
+            }
+            
+            ReliefIO.move(temp, entry);
+            done = true;
+        }
+        finally
+        {
+            if(!done)
+                temp.delete();
+        }
+    }
+    
+    private static ByteBuffer deflate(byte[] input)
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(input);
+        deflater.finish();
+        
+        byte[] output = new byte[input.length / 2 + 64];
+        int size = 0;
+        
+        while(!deflater.finished())
+        {
+            if(size == output.length)
+                output = Arrays.copyOf(output, 2 * output.length);
+            
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        
+        deflater.end();
+        
+        return ByteBuffer.wrap(output, 0, size);
+    }
+    
+    private static void inflate(byte[] input, ByteBuffer output)
+            throws IOException
+    {
+        Inflater inflater = new Inflater();
+        inflater.setInput(input);
+        
+        byte[] block = new byte[64 * 1024];
+        
+        try
+        {
+            while(!inflater.finished())
+            {
+                int count = inflater.inflate(block);
+                
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Invalid cache entry (truncated)");
+                
+                if(count > output.remaining())
+                    throw new IOException("Invalid cache entry (bad size)");
+                
+                output.put(block, 0, count);
+            }
+        }
+        catch(DataFormatException e)
+        {
+            throw new IOException("Invalid cache entry (bad data)", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        
+        if(output.hasRemaining())
+            throw new IOException("Invalid cache entry (bad size)");
+        
+        output.flip();
+    }
+    
+    private static byte[] hash(File file) throws IOException
+    {
+        MessageDigest digest = digest();
+        byte[] block = new byte[64 * 1024];
+        
+        try(InputStream input = new FileInputStream(file))
+        {
+            int count;
+            
+            while((count = input.read(block)) >= 0)
+                digest.update(block, 0, count);
+        }
+        
+        return digest.digest();
+    }
+    
+    private static MessageDigest digest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            // every Java platform has to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder builder = new StringBuilder(2 * bytes.length);
+        
+        for(byte b : bytes)
+            builder.append(String.format("%02x", b & 0xFF));
+        
+        return builder.toString();
+    }
+    
+    /**
+     * Entry header, all values big-endian.
+     */
+    private static class Header
+    {
+        private int flags;
+        private int width, height;
+        private long modified, length;
+        private final byte[] hash = new byte[HASH_SIZE];
+        private long stored;
+        
+        
+        /**
+         * Reads header or returns null if entry is unusable on this machine.
+         */
+        public static Header read(FileChannel channel) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            
+            while(buffer.hasRemaining())
+            {
+                if(channel.read(buffer) < 0)
+                    throw new IOException("Invalid cache entry (too short)");
+            }
+            
+            buffer.flip();
+            
+            if(buffer.getInt() != MAGIC)
+                throw new IOException("Invalid cache entry (bad header)");
+            
+            if(buffer.getInt() != VERSION)
+                return null;
+            
+            Header header = new Header();
+            header.flags = buffer.getInt();
+            header.width = buffer.getInt();
+            header.height = buffer.getInt();
+            header.modified = buffer.getLong();
+            header.length = buffer.getLong();
+            buffer.get(header.hash);
+            header.stored = buffer.getInt() & 0xFFFFFFFFL;
+            
+            boolean little = (header.flags & LITTLE_ENDIAN) != 0;
+            
+            if(little != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN))
+                return null;
+            
+            if(header.width < 1 || header.height < 1)
+                throw new IOException("Invalid cache entry (bad size)");
+            
+            return header;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import javax.imageio.ImageIO;
+
+/**
+ * Decoded texture with full chain of mipmaps, ready for upload. Pixels are
+ * ARGB ints (GL_BGRA with GL_UNSIGNED_INT_8_8_8_8_REV), rows go from bottom
+ * to top. All levels are stored one after another in single direct buffer
+ * sized for this image.
+ */
+public class TextureImage
+{
+    private final int width;
+    private final int height;
+    private final int levels;
+    private final IntBuffer data;
+    
+    
+    /**
+     * Wraps pixels of all levels, as laid out by {@link #getOffset(int)}.
+     */
+    public TextureImage(int width, int height, IntBuffer data)
+    {
+        if(width < 1 || height < 1)
+            throw new IllegalArgumentException("Invalid texture size");
+        
+        this.width = width;
+        this.height = height;
+        this.levels = getLevelCount(width, height);
+        
+        if(data.capacity() < getSize(width, height))
+            throw new IllegalArgumentException("Texture data too small");
+        
+        this.data = data;
+    }
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    public int getLevels()
+    {
+        return levels;
+    }
+    
+    public int getWidth(int level)
+    {
+        return Math.max(width >> level, 1);
+    }
+    
+    public int getHeight(int level)
+    {
+        return Math.max(height >> level, 1);
+    }
+    
+    /**
+     * Returns index of first pixel of level in data buffer.
+     */
+    public int getOffset(int level)
+    {
+        int offset = 0;
+        
+        for(int i=0; i<level; i++)
+            offset += getWidth(i) * getHeight(i);
+        
+        return offset;
+    }
+    
+    /**
+     * Returns pixels of all levels.
+     */
+    public IntBuffer getData()
+    {
+        return data.duplicate();
+    }
+    
+    /**
+     * Returns pixels of one level.
+     */
+    public IntBuffer getData(int level)
+    {
+        IntBuffer buffer = data.duplicate();
+        int offset = getOffset(level);
+        
+        buffer.limit(offset + getWidth(level) * getHeight(level));
+        buffer.position(offset);
+        
+        return buffer.slice();
+    }
+    
+    /**
+     * Returns number of pixels in all levels of texture.
+     */
+    public static int getSize(int width, int height)
+    {
+        int size = 0;
+        
+        for(int i=0; i<getLevelCount(width, height); i++)
+            size += Math.max(width >> i, 1) * Math.max(height >> i, 1);
+        
+        return size;
+    }
+    
+    public static int getLevelCount(int width, int height)
+    {
+        int size = Math.max(width, height);
+        
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+    
+    public static TextureImage read(File file) throws IOException
+    {
+        BufferedImage image = ImageIO.read(file);
+        
+        if(image == null)
+            throw new IOException("Unsupported image format: " + file);
+        
+        return fromImage(image);
+    }
+    
+    /**
+     * Converts image and computes its mipmaps.
+     */
+    public static TextureImage fromImage(BufferedImage image)
+    {
+        // other image types are converted once, then pixels are copied in bulk
+        if(image.getType() != BufferedImage.TYPE_INT_ARGB)
+        {
+            BufferedImage argb = new BufferedImage(image.getWidth(),
+                    image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            
+            Graphics2D g = argb.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            
+            image = argb;
+        }
+        
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        
+        IntBuffer data = ByteBuffer.allocateDirect(4 * getSize(width, height))
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        
+        int[] level = new int[width * height];
+        
+        for(int j=0; j<height; j++)
+            System.arraycopy(pixels, (height - 1 - j) * width, level, j * width, width);
+        
+        data.put(level);
+        
+        int w = width, h = height;
+        
+        while(w > 1 || h > 1)
+        {
+            level = downsample(level, w, h);
+            w = Math.max(w >> 1, 1);
+            h = Math.max(h >> 1, 1);
+            
+            data.put(level, 0, w * h);
+        }
+        
+        data.flip();
+        
+        return new TextureImage(width, height, data);
+    }
+    
+    /**
+     * Averages 2x2 blocks of pixels. Last row or column of odd size is
+     * added to the last block, so every pixel counts in the result.
+     */
+    static int[] downsample(int[] pixels, int width, int height)
+    {
+        int w = Math.max(width >> 1, 1);
+        int h = Math.max(height >> 1, 1);
+        int[] result = new int[w * h];
+        int[] sums = new int[4];
+        
+        for(int j=0; j<h; j++)
+        {
+            int y1 = 2 * j;
+            int y2 = j == h - 1 ? height - 1 : y1 + 1;
+            
+            for(int i=0; i<w; i++)
+            {
+                int x1 = 2 * i;
+                int x2 = i == w - 1 ? width - 1 : x1 + 1;
+                int count = (x2 - x1 + 1) * (y2 - y1 + 1);
+                
+                sums[0] = sums[1] = sums[2] = sums[3] = 0;
+                
+                for(int y=y1; y<=y2; y++)
+                {
+                    for(int x=x1; x<=x2; x++)
+                    {
+                        int pixel = pixels[x + width * y];
+                        
+                        for(int k=0; k<4; k++)
+                            sums[k] += (pixel >>> (8 * k)) & 0xFF;
+                    }
+                }
+                
+                int color = 0;
+                
+                for(int k=0; k<4; k++)
+                    color |= ((sums[k] + count / 2) / count) << (8 * k);
+                
+                result[i + w * j] = color;
+            }
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+
+/**
+ * Textures loaded on first use. Files are decoded in parallel on worker
+ * threads and uploaded by render thread in {@link #update()}; until then
+ * fallback texture is used. GL methods require current GL context.
+ * Decoded textures can be kept in {@link TextureCache}.
+ */
+public class TextureLibrary
+{
+    private final File[] files;
+    private final int fallback;
+    private final TextureCache cache;
+    private final int[] ids;
+    private final boolean[] failed;
+    private final Future<?>[] loading;
+    private final Queue<File> changed = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor;
+    
+    
+    /**
+     * Creates library of texture files. Decoded textures are kept in
+     * cache, if it is not null.
+     */
+    public TextureLibrary(File[] files, int fallback, TextureCache cache)
+    {
+        this.files = files.clone();
+        this.fallback = fallback;
+        this.cache = cache;
+        
+        ids = new int[files.length];
+        failed = new boolean[files.length];
+        loading = new Future<?>[files.length];
+        
+        int threads = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+        
+        // daemon threads never keep the application running
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "Texture loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    public int getCount()
+    {
+        return files.length;
+    }
+    
+    /**
+     * Starts decoding of texture if it is not loaded yet.
+     */
+    public void request(int index)
+    {
+        if(index < 0 || index >= files.length) return;
+        if(ids[index] != 0 || failed[index] || loading[index] != null) return;
+        
+        load(index);
+    }
+    
+    /**
+     * Marks texture file as changed, it is decoded again if it was used.
+     * Can be called from any thread.
+     */
+    public void reload(File file)
+    {
+        changed.offer(file.getAbsoluteFile());
+    }
+    
+    private void load(int index)
+    {
+        final File file = files[index];
+        
+        loading[index] = executor.submit(new Callable<TextureImage>()
+        {
+            @Override
+            public TextureImage call() throws Exception
+            {
+                if(cache != null)
+                    return cache.load(file);
+                else
+                    return TextureImage.read(file);
+            }
+        });
+    }
+    
+    /**
+     * Returns texture id or fallback texture, if it is not loaded yet.
+     */
+    public int get(int index)
+    {
+        if(index < 0 || index >= files.length) return fallback;
+        
+        request(index);
+        
+        return ids[index] != 0 ? ids[index] : fallback;
+    }
+    
+    /**
+     * Starts decoding of changed textures and uploads textures decoded
+     * since last call.
+     */
+    public void update()
+    {
+        for(File file=changed.poll(); file!=null; file=changed.poll())
+        {
+            for(int i=0; i<files.length; i++)
+            {
+                if(!files[i].getAbsoluteFile().equals(file)) continue;
+                
+                // old texture stays visible until new one is decoded
+                if((ids[i] != 0 || failed[i]) && loading[i] == null)
+                {
+                    failed[i] = false;
+                    load(i);
+                }
+            }
+        }
+        
+        for(int i=0; i<files.length; i++)
+        {
+            if(loading[i] == null || !loading[i].isDone()) continue;
+            
+            try
+            {
+                int id = upload((TextureImage) loading[i].get());
+                
+                if(ids[i] != 0)
+                    glDeleteTextures(ids[i]);
+                
+                ids[i] = id;
+            }
+            catch(ExecutionException e)
+            {
+                System.err.println(files[i] + ": " + e.getCause().getLocalizedMessage());
+                failed[i] = true;
+            }
+            catch(InterruptedException e)
+            {
+                failed[i] = true;
+            }
+            
+            loading[i] = null;
+        }
+    }
+    
+    /**
+     * Stops loading and deletes all textures.
+     */
+    public void release()
+    {
+        executor.shutdownNow();
+        
+        for(int i=0; i<ids.length; i++)
+        {
+            if(ids[i] != 0)
+                glDeleteTextures(ids[i]);
+            
+            ids[i] = 0;
+        }
+    }
+    
+    private static int upload(TextureImage image)
+    {
+        // levels larger than supported size are skipped
+        int maxSize = glGetInteger(GL_MAX_TEXTURE_SIZE);
+        int base = 0;
+        
+        while(base < image.getLevels() - 1
+                && Math.max(image.getWidth(base), image.getHeight(base)) > maxSize)
+            base++;
+        
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, image.getLevels() - 1 - base);
+        
+        for(int level=base; level<image.getLevels(); level++)
+        {
+            glTexImage2D(GL_TEXTURE_2D, level - base, GL_RGBA8,
+                    image.getWidth(level), image.getHeight(level), 0,
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, image.getData(level));
+        }
+        
+        glBindTexture(GL_TEXTURE_2D, 0);
+        
+        return id;
+    }
+}
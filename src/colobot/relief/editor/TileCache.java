@@ -0,0 +1,272 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pre-scaled tiles of relief image for 2D view. Tiles are scaled lazily when
+ * they become visible and are kept for a few recent zoom levels, so painting
+ * only copies visible tiles. Changed cells invalidate tiles containing them.
+ *
+ * Source can have reduced images (see ReliefPyramid), image k having one
+ * pixel per 2^k x 2^k cells. Zoomed out view is scaled from the image
+ * closest to its size, so it shows averaged relief instead of skipped cells.
+ *
+ * Cell x is drawn between pixels floor(x * scale) and floor((x+1) * scale)
+ * relative to origin, so tiles meet without gaps at any zoom.
+ */
+public class TileCache
+{
+    public static final int TILE_SIZE = 64;
+    
+    // zoom levels kept and limit of cached pixels in all levels
+    private static final int LEVELS = 3;
+    private static final long MAX_PIXELS = 16L << 20;
+    
+    private BufferedImage[] sources = null;
+    private int width, height;
+    private final Map<Float, Level> levels = new LinkedHashMap<>(16, 0.75f, true);
+    private long pixels = 0;
+    private long paints = 0;
+    
+    
+    /**
+     * Sets image to be drawn followed by its reduced images, each half
+     * the size of previous one, and drops all cached tiles.
+     */
+    public void setSources(BufferedImage[] sources)
+    {
+        this.sources = sources;
+        
+        levels.clear();
+        pixels = 0;
+        
+        if(sources != null)
+        {
+            width = sources[0].getWidth();
+            height = sources[0].getHeight();
+        }
+    }
+    
+    public BufferedImage getSource()
+    {
+        return sources == null ? null : sources[0];
+    }
+    
+    /**
+     * Returns index of source image drawn at given scale.
+     */
+    public int getSourceIndex(float scale)
+    {
+        if(sources == null || scale >= 1.0f) return 0;
+        
+        int index = (int) Math.floor(Math.log(1.0 / scale) / Math.log(2.0));
+        
+        return Math.max(Math.min(index, sources.length - 1), 0);
+    }
+    
+    /**
+     * Marks tiles covering rectangle of cells (inclusive) for rescaling.
+     */
+    public void invalidate(int minX, int minY, int maxX, int maxY)
+    {
+        if(sources == null) return;
+        
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        
+        for(Level level : levels.values())
+        {
+            int k = level.source;
+            
+            // colors of neighbouring reduced pixels change too
+            int margin = k > 0 ? 1 : 0;
+            int tx1 = Math.max((minX >> k) - margin, 0) / TILE_SIZE;
+            int ty1 = Math.max((minY >> k) - margin, 0) / TILE_SIZE;
+            int tx2 = Math.min(((maxX >> k) + margin) / TILE_SIZE, level.tilesX - 1);
+            int ty2 = Math.min(((maxY >> k) + margin) / TILE_SIZE, level.tilesY - 1);
+            
+            for(int ty=ty1; ty<=ty2; ty++)
+            {
+                for(int tx=tx1; tx<=tx2; tx++)
+                {
+                    level.valid[tx + level.tilesX * ty] = false;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns component rectangle covering cells (inclusive) drawn with
+     * given origin and scale. One pixel margin covers rounding of scaling.
+     */
+    public static Rectangle getBounds(int originX, int originY, float scale,
+            int minX, int minY, int maxX, int maxY)
+    {
+        int x1 = originX + toPixel(minX, scale) - 1;
+        int y1 = originY + toPixel(minY, scale) - 1;
+        int x2 = originX + toPixel(maxX + 1, scale) + 1;
+        int y2 = originY + toPixel(maxY + 1, scale) + 1;
+        
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+    
+    /**
+     * Draws tiles intersecting clip rectangle.
+     */
+    public void paint(Graphics2D g, int originX, int originY, float scale,
+            Rectangle clip)
+    {
+        if(sources == null || scale <= 0) return;
+        
+        Level level = levels.get(scale);
+        
+        if(level == null)
+        {
+            level = new Level(getSourceIndex(scale));
+            levels.put(scale, level);
+        }
+        
+        paints++;
+        
+        // source pixels cover 2^k cells, last ones may cover fewer
+        BufferedImage source = sources[level.source];
+        int k = level.source;
+        
+        for(int ty=0; ty<level.tilesY; ty++)
+        {
+            int y1 = ty * TILE_SIZE;
+            int y2 = Math.min(y1 + TILE_SIZE, source.getHeight());
+            int py1 = originY + toPixel(y1 << k, scale);
+            int py2 = originY + toPixel(Math.min(y2 << k, height), scale);
+            
+            if(py2 <= clip.y || py1 >= clip.y + clip.height) continue;
+            
+            for(int tx=0; tx<level.tilesX; tx++)
+            {
+                int x1 = tx * TILE_SIZE;
+                int x2 = Math.min(x1 + TILE_SIZE, source.getWidth());
+                int px1 = originX + toPixel(x1 << k, scale);
+                int px2 = originX + toPixel(Math.min(x2 << k, width), scale);
+                
+                if(px2 <= clip.x || px1 >= clip.x + clip.width) continue;
+                if(px2 == px1 || py2 == py1) continue;
+                
+                int index = tx + level.tilesX * ty;
+                BufferedImage tile = level.tiles[index];
+                
+                if(tile == null)
+                {
+                    tile = g.getDeviceConfiguration()
+                            .createCompatibleImage(px2 - px1, py2 - py1);
+                    level.tiles[index] = tile;
+                    level.valid[index] = false;
+                    pixels += (long) tile.getWidth() * tile.getHeight();
+                }
+                
+                if(!level.valid[index])
+                {
+                    Graphics2D tg = tile.createGraphics();
+                    tg.setComposite(AlphaComposite.Src);
+                    tg.drawImage(source, 0, 0, tile.getWidth(), tile.getHeight(),
+                            x1, y1, x2, y2, null);
+                    tg.dispose();
+                    
+                    level.valid[index] = true;
+                }
+                
+                level.used[index] = paints;
+                g.drawImage(tile, px1, py1, null);
+            }
+        }
+        
+        trim(level);
+    }
+    
+    private static int toPixel(int cell, float scale)
+    {
+        return (int) Math.floor(cell * scale);
+    }
+    
+    /**
+     * Drops old zoom levels and least recently drawn tiles over the limits.
+     * Tiles drawn by the last paint are kept.
+     */
+    private void trim(Level current)
+    {
+        Iterator<Level> iterator = levels.values().iterator();
+        
+        while(levels.size() > LEVELS || (pixels > MAX_PIXELS && levels.size() > 1))
+        {
+            Level level = iterator.next();
+            
+            if(level == current) break;
+            
+            pixels -= level.getPixels();
+            iterator.remove();
+        }
+        
+        while(pixels > MAX_PIXELS)
+        {
+            int oldest = -1;
+            
+            for(int i=0; i<current.tiles.length; i++)
+            {
+                if(current.tiles[i] == null || current.used[i] == paints) continue;
+                
+                if(oldest < 0 || current.used[i] < current.used[oldest])
+                    oldest = i;
+            }
+            
+            if(oldest < 0) break;
+            
+            BufferedImage tile = current.tiles[oldest];
+            pixels -= (long) tile.getWidth() * tile.getHeight();
+            current.tiles[oldest] = null;
+        }
+    }
+    
+    private class Level
+    {
+        private final int source;
+        private final int tilesX, tilesY;
+        private final BufferedImage[] tiles;
+        private final boolean[] valid;
+        private final long[] used;
+        
+        
+        public Level(int source)
+        {
+            this.source = source;
+            
+            tilesX = (sources[source].getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+            tilesY = (sources[source].getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+            
+            int count = tilesX * tilesY;
+            tiles = new BufferedImage[count];
+            valid = new boolean[count];
+            used = new long[count];
+        }
+        
+        public long getPixels()
+        {
+            long result = 0;
+            
+            for(BufferedImage tile : tiles)
+            {
+                if(tile != null)
+                    result += (long) tile.getWidth() * tile.getHeight();
+            }
+            
+            return result;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Arrays;
+
+/**
+ * Plans uploads of changed chunk vertices to vertex buffer object.
+ * Vertices are stored row by row, so changed rectangle is one byte range
+ * per row. Ranges separated by at most maxGap bytes are merged, trading
+ * a few unchanged bytes for fewer upload calls.
+ */
+public class UploadPlanner
+{
+    private final int stride;
+    private final int maxGap;
+    
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int count = 0;
+    
+    
+    public UploadPlanner(int stride, int maxGap)
+    {
+        if(stride <= 0 || maxGap < 0)
+            throw new IllegalArgumentException("Invalid upload parameters");
+        
+        this.stride = stride;
+        this.maxGap = maxGap;
+    }
+    
+    /**
+     * Plans upload of rectangle of vertices (inclusive, local coordinates)
+     * of chunk with given number of cells. Rectangle is clipped to chunk
+     * vertices. Returns number of ranges.
+     */
+    public int plan(int columns, int rows, int minX, int minY, int maxX, int maxY)
+    {
+        count = 0;
+        
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, columns);
+        maxY = Math.min(maxY, rows);
+        
+        if(minX > maxX || minY > maxY) return 0;
+        
+        int rowBytes = (columns + 1) * stride;
+        int length = (maxX - minX + 1) * stride;
+        boolean merge = rowBytes - length <= maxGap;
+        
+        for(int j=minY; j<=maxY; j++)
+        {
+            int offset = j * rowBytes + minX * stride;
+            
+            if(merge && count > 0)
+                lengths[count-1] = offset + length - offsets[count-1];
+            else
+                add(offset, length);
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Plans upload of changes collected in dirty region and clears it.
+     */
+    public int plan(int columns, int rows, DirtyRegion dirty)
+    {
+        DirtyRegion region = dirty.take();
+        
+        if(region.isEmpty())
+        {
+            count = 0;
+            return 0;
+        }
+        
+        return plan(columns, rows, region.getMinX(), region.getMinY(),
+                region.getMaxX(), region.getMaxY());
+    }
+    
+    public int getCount()
+    {
+        return count;
+    }
+    
+    public int getOffset(int range)
+    {
+        return offsets[range];
+    }
+    
+    public int getLength(int range)
+    {
+        return lengths[range];
+    }
+    
+    /**
+     * Returns number of bytes in all planned ranges.
+     */
+    public int getBytes()
+    {
+        int bytes = 0;
+        
+        for(int i=0; i<count; i++)
+            bytes += lengths[i];
+        
+        return bytes;
+    }
+    
+    private void add(int offset, int length)
+    {
+        if(count == offsets.length)
+        {
+            offsets = Arrays.copyOf(offsets, 2 * count);
+            lengths = Arrays.copyOf(lengths, 2 * count);
+        }
+        
+        offsets[count] = offset;
+        lengths[count] = length;
+        count++;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Vertex layout of terrain chunks. Vertices are split into two streams:
+ * static stream with local grid position (2 floats), which never changes
+ * and is shared by chunks of the same size, and dynamic stream with
+ * height (1 float) followed by normal in selected format.
+ * World position is 5 * (offset + grid), texcoord is offset + grid.
+ */
+public class VertexLayout
+{
+    /**
+     * Storage format of normals in dynamic stream.
+     */
+    public enum Normals
+    {
+        /** three floats, 12 bytes */
+        FLOAT(12),
+        /** three signed normalized bytes and padding, 4 bytes */
+        BYTE(4),
+        /** signed normalized 10:10:10:2 packed integer, 4 bytes */
+        PACKED(4);
+        
+        private final int size;
+        
+        private Normals(int size)
+        {
+            this.size = size;
+        }
+        
+        public int getSize()
+        {
+            return size;
+        }
+    }
+    
+    public static final int STATIC_STRIDE = 2 * 4;
+    public static final int HEIGHT_OFFSET = 0;
+    public static final int NORMAL_OFFSET = 4;
+    
+    private final Normals normals;
+    private final int stride;
+    
+    
+    public VertexLayout(Normals normals)
+    {
+        this.normals = normals;
+        this.stride = NORMAL_OFFSET + normals.getSize();
+    }
+    
+    public Normals getNormals()
+    {
+        return normals;
+    }
+    
+    /**
+     * Returns size of one vertex in dynamic stream in bytes.
+     */
+    public int getDynamicStride()
+    {
+        return stride;
+    }
+    
+    /**
+     * Creates static stream for grid of given number of cells.
+     */
+    public static FloatBuffer createStatic(int columns, int rows)
+    {
+        FloatBuffer buffer = ByteBuffer
+                .allocateDirect((columns+1) * (rows+1) * STATIC_STRIDE)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        
+        for(int j=0; j<=rows; j++)
+        {
+            for(int i=0; i<=columns; i++)
+            {
+                buffer.put(i).put(j);
+            }
+        }
+        
+        buffer.flip();
+        
+        return buffer;
+    }
+    
+    /**
+     * Creates dynamic stream for given number of vertices, with zero heights
+     * and normals pointing up.
+     */
+    public ByteBuffer createDynamic(int count)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * stride)
+                .order(ByteOrder.nativeOrder());
+        
+        for(int i=0; i<count; i++)
+        {
+            putHeight(buffer, i, 0.0f);
+            putNormal(buffer, i, 0.0f, 1.0f, 0.0f);
+        }
+        
+        return buffer;
+    }
+    
+    public float getHeight(ByteBuffer buffer, int vertex)
+    {
+        return buffer.getFloat(stride * vertex + HEIGHT_OFFSET);
+    }
+    
+    public void putHeight(ByteBuffer buffer, int vertex, float value)
+    {
+        buffer.putFloat(stride * vertex + HEIGHT_OFFSET, value);
+    }
+    
+    /**
+     * Stores normal of vertex. Components are expected in range [-1, 1].
+     */
+    public void putNormal(ByteBuffer buffer, int vertex,
+            float nx, float ny, float nz)
+    {
+        int index = stride * vertex + NORMAL_OFFSET;
+        
+        switch(normals)
+        {
+            case FLOAT:
+                buffer.putFloat(index+0, nx);
+                buffer.putFloat(index+4, ny);
+                buffer.putFloat(index+8, nz);
+                break;
+            case BYTE:
+                buffer.put(index+0, (byte) toSigned(nx, 127));
+                buffer.put(index+1, (byte) toSigned(ny, 127));
+                buffer.put(index+2, (byte) toSigned(nz, 127));
+                buffer.put(index+3, (byte) 0);
+                break;
+            case PACKED:
+                buffer.putInt(index, pack(nx, ny, nz));
+                break;
+        }
+    }
+    
+    /**
+     * Reads normal of vertex back into first three elements of array.
+     */
+    public void getNormal(ByteBuffer buffer, int vertex, float[] normal)
+    {
+        int index = stride * vertex + NORMAL_OFFSET;
+        
+        switch(normals)
+        {
+            case FLOAT:
+                normal[0] = buffer.getFloat(index+0);
+                normal[1] = buffer.getFloat(index+4);
+                normal[2] = buffer.getFloat(index+8);
+                break;
+            case BYTE:
+                normal[0] = fromSigned(buffer.get(index+0), 127);
+                normal[1] = fromSigned(buffer.get(index+1), 127);
+                normal[2] = fromSigned(buffer.get(index+2), 127);
+                break;
+            case PACKED:
+                unpack(buffer.getInt(index), normal);
+                break;
+        }
+    }
+    
+    /**
+     * Packs normal into signed 10:10:10:2 integer, x in lowest bits
+     * (GL_INT_2_10_10_10_REV). Alpha bits are zero.
+     */
+    public static int pack(float nx, float ny, float nz)
+    {
+        return (toSigned(nx, 511) & 0x3FF)
+                | (toSigned(ny, 511) & 0x3FF) << 10
+                | (toSigned(nz, 511) & 0x3FF) << 20;
+    }
+    
+    /**
+     * Unpacks normal packed by {@link #pack}.
+     */
+    public static void unpack(int value, float[] normal)
+    {
+        // shifts move 10-bit field to the top and extend its sign
+        normal[0] = fromSigned(value << 22 >> 22, 511);
+        normal[1] = fromSigned(value << 12 >> 22, 511);
+        normal[2] = fromSigned(value << 2 >> 22, 511);
+    }
+    
+    private static int toSigned(float value, int max)
+    {
+        return Math.round(Math.max(-1.0f, Math.min(value, 1.0f)) * max);
+    }
+    
+    private static float fromSigned(int value, int max)
+    {
+        return Math.max(-1.0f, (float) value / max);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EditHistoryTest
+{
+    // large enough for varints of three bytes
+    private static final int WIDTH = 401;
+    private static final int HEIGHT = 333;
+    
+    private final Random random = new Random(11);
+    private final Heightfield relief = new Heightfield(WIDTH, HEIGHT);
+    private final DirtyRegion dirty = new DirtyRegion();
+    
+    
+    @Test
+    public void undoAndRedoRestoreEveryStroke()
+    {
+        EditHistory history = new EditHistory(Long.MAX_VALUE);
+        List<ByteBuffer> states = new ArrayList<>();
+        states.add(copy());
+        
+        for(int k=0; k<30; k++)
+        {
+            // small, far apart, whole relief and repeated strokes
+            int cells = k % 10 == 5 ? WIDTH * HEIGHT : 1 + random.nextInt(2000);
+            stroke(history, cells, k % 3 == 0 ? 50 : WIDTH * HEIGHT);
+            states.add(copy());
+        }
+        
+        for(int k=states.size()-2; k>=0; k--)
+        {
+            assertTrue(history.undo(relief, dirty));
+            assertEquals("undo to " + k, states.get(k), relief.getBuffer());
+        }
+        
+        assertFalse(history.undo(relief, dirty));
+        
+        for(int k=1; k<states.size(); k++)
+        {
+            assertTrue(history.redo(relief, dirty));
+            assertEquals("redo to " + k, states.get(k), relief.getBuffer());
+        }
+        
+        assertFalse(history.redo(relief, dirty));
+    }
+    
+    @Test
+    public void keepsFirstOldAndLastNewValue()
+    {
+        EditHistory history = new EditHistory(Long.MAX_VALUE);
+        int index = relief.getIndex(7, 5);
+        
+        history.beginStroke();
+        change(history, index, 10);
+        change(history, index, 20);
+        change(history, index, 30);
+        history.endStroke();
+        
+        // one cell: delta of two bytes, old and new value
+        assertEquals(4, history.getSize());
+        
+        assertTrue(history.undo(relief, dirty));
+        assertEquals(0, relief.get(index));
+        assertTrue(history.redo(relief, dirty));
+        assertEquals(30, relief.get(index));
+    }
+    
+    @Test
+    public void changesOutsideStrokeAreSeparateSteps()
+    {
+        EditHistory history = new EditHistory(Long.MAX_VALUE);
+        
+        change(history, 3, 10);
+        change(history, 4, 20);
+        
+        assertTrue(history.undo(relief, dirty));
+        assertEquals(10, relief.get(3));
+        assertEquals(0, relief.get(4));
+    }
+    
+    @Test
+    public void newStrokeDropsRedo()
+    {
+        EditHistory history = new EditHistory(Long.MAX_VALUE);
+        
+        change(history, 3, 10);
+        long size = history.getSize();
+        change(history, 4, 20);
+        
+        assertTrue(history.undo(relief, dirty));
+        change(history, 5, 30);
+        
+        assertFalse(history.canRedo());
+        assertEquals(2 * size, history.getSize());
+    }
+    
+    @Test
+    public void evictsOldestStrokesAtLimit()
+    {
+        long limit = 20000;
+        EditHistory history = new EditHistory(limit);
+        List<ByteBuffer> states = new ArrayList<>();
+        states.add(copy());
+        
+        for(int k=0; k<40; k++)
+        {
+            stroke(history, 1 + random.nextInt(1500), WIDTH * HEIGHT);
+            states.add(copy());
+            
+            assertTrue(history.getSize() <= limit);
+        }
+        
+        int undone = 0;
+        
+        while(history.undo(relief, dirty))
+            undone++;
+        
+        // remaining strokes lead back to state after last evicted one
+        assertTrue(undone > 0 && undone < 40);
+        assertEquals(states.get(40 - undone), relief.getBuffer());
+        
+        for(int k=0; k<undone; k++)
+            assertTrue(history.redo(relief, dirty));
+        
+        assertEquals(states.get(40), relief.getBuffer());
+        
+        // lower limit drops strokes at once
+        history.setLimit(0);
+        assertFalse(history.canUndo());
+    }
+    
+    @Test
+    public void clearDropsEverything()
+    {
+        EditHistory history = new EditHistory(Long.MAX_VALUE);
+        
+        stroke(history, 100, 100);
+        history.beginStroke();
+        change(history, 1, 1);
+        history.clear();
+        
+        assertFalse(history.canUndo());
+        assertFalse(history.canRedo());
+        assertFalse(history.isStrokeActive());
+        assertEquals(0, history.getSize());
+    }
+    
+    /**
+     * Changes random cells, starting at random index within given range.
+     */
+    private void stroke(EditHistory history, int cells, int range)
+    {
+        int start = random.nextInt(Math.max(WIDTH * HEIGHT - range, 1));
+        range = Math.min(range, WIDTH * HEIGHT - start);
+        
+        history.beginStroke();
+        
+        for(int i=0; i<cells; i++)
+            change(history, start + random.nextInt(range), random.nextInt(256));
+        
+        history.endStroke();
+    }
+    
+    private void change(EditHistory history, int index, int value)
+    {
+        history.record(index, relief.get(index), value);
+        relief.set(index, value);
+    }
+    
+    private ByteBuffer copy()
+    {
+        return relief.copy().getBuffer();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class GrayImageIOTest
+{
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+    private static final String[] FORMATS = { "png", "bmp" };
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    
+    @Test
+    public void roundTrip() throws IOException
+    {
+        Heightfield relief = createRelief();
+        
+        for(String format : FORMATS)
+        {
+            File file = folder.newFile("relief." + format);
+            GrayImageIO.write(relief, file, null);
+            
+            assertSamples(format, relief, GrayImageIO.read(file, null));
+            assertSamples(format, relief, ReliefIO.readImage(file, null));
+        }
+    }
+    
+    @Test
+    public void mapsGrayPalette() throws IOException
+    {
+        // reversed gray levels, index 10 is level 245
+        byte[] gray = new byte[256];
+        
+        for(int i=0; i<256; i++)
+            gray[i] = (byte) (255 - i);
+        
+        for(String format : FORMATS)
+        {
+            File file = writeIndexed(format, gray, gray, gray);
+            Heightfield relief = GrayImageIO.read(file, null);
+            
+            assertNotNull(format, relief);
+            assertEquals(format, 245, relief.get(0, 0));
+            assertSamples(format, ReliefIO.readImage(file, null), relief);
+        }
+    }
+    
+    @Test
+    public void leavesColorPaletteToImageIO() throws IOException
+    {
+        byte[] red = new byte[256];
+        byte[] green = new byte[256];
+        byte[] blue = new byte[256];
+        
+        for(int i=0; i<256; i++)
+        {
+            red[i] = (byte) i;
+            green[i] = (byte) (i / 2);
+            blue[i] = (byte) (255 - i);
+        }
+        
+        for(String format : FORMATS)
+        {
+            File file = writeIndexed(format, red, green, blue);
+            
+            assertNull(format, GrayImageIO.read(file, null));
+            assertEquals(format, 245, ReliefIO.read(file).get(0, 0));
+        }
+    }
+    
+    private Heightfield createRelief()
+    {
+        Random random = new Random(7);
+        Heightfield relief = new Heightfield(WIDTH, HEIGHT);
+        
+        for(int i=0; i<WIDTH*HEIGHT; i++)
+            relief.set(i, random.nextInt(256));
+        
+        return relief;
+    }
+    
+    /**
+     * Writes image of random palette indices through ImageIO, first index
+     * is always 10.
+     */
+    private File writeIndexed(String format, byte[] red, byte[] green,
+            byte[] blue) throws IOException
+    {
+        IndexColorModel model = new IndexColorModel(8, 256, red, green, blue);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                BufferedImage.TYPE_BYTE_INDEXED, model);
+        WritableRaster raster = image.getRaster();
+        Heightfield indices = createRelief();
+        
+        for(int j=0; j<HEIGHT; j++)
+            for(int i=0; i<WIDTH; i++)
+                raster.setSample(i, j, 0, indices.get(i, j));
+        
+        raster.setSample(0, 0, 0, 10);
+        
+        File file = folder.newFile("indexed." + format);
+        assertTrue(format, ImageIO.write(image, format, file));
+        
+        return file;
+    }
+    
+    private static void assertSamples(String message, Heightfield expected,
+            Heightfield actual)
+    {
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        assertEquals(message, expected.getHeight(), actual.getHeight());
+        
+        ByteBuffer a = expected.getBuffer();
+        ByteBuffer b = actual.getBuffer();
+        
+        assertTrue(message, a.equals(b));
+    }
+}
@@ -0,0 +1,257 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LodIndexBuilderTest
+{
+    private static final int SIZE = TerrainMesh.CHUNK_SIZE;
+    
+    // largest strip of full chunk has fewer than 3 * SIZE * SIZE triangles
+    private final EdgeSet edges = new EdgeSet(9 * SIZE * SIZE);
+    
+    
+    /**
+     * Every combination of chunk step and coarser neighbour steps has to
+     * cover whole chunk once, with edges matching neighbours.
+     */
+    @Test
+    public void coversChunkWithoutCracks()
+    {
+        for(LodIndexBuilder.Mode mode : LodIndexBuilder.Mode.values())
+        {
+            for(int step=1; step<=SIZE; step*=2)
+            {
+                // neighbours are never drawn finer than this chunk
+                int steps = Integer.numberOfTrailingZeros(SIZE / step) + 1;
+                
+                for(int edges=0; edges<steps*steps*steps*steps; edges++)
+                {
+                    int left = step << (edges % steps);
+                    int right = step << (edges / steps % steps);
+                    int top = step << (edges / steps / steps % steps);
+                    int bottom = step << (edges / steps / steps / steps);
+                    
+                    check(SIZE, SIZE, step, left, right, top, bottom, mode);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void coversPartialChunk()
+    {
+        for(LodIndexBuilder.Mode mode : LodIndexBuilder.Mode.values())
+        {
+            check(48, 16, 1, 1, 1, 1, 1, mode);
+            check(48, 16, 2, 4, 2, 8, 16, mode);
+            check(48, 16, 8, 16, 8, 16, 16, mode);
+            check(17, 3, 1, 1, 1, 1, 1, mode);
+        }
+    }
+    
+    @Test
+    public void blockedOrderReusesVertices()
+    {
+        float list = getAcmr(LodIndexBuilder.Mode.LIST);
+        float blocks = getAcmr(LodIndexBuilder.Mode.BLOCKS);
+        float strip = getAcmr(LodIndexBuilder.Mode.STRIP);
+        
+        assertTrue("blocks " + blocks + ", list " + list, blocks < list);
+        assertTrue("strip " + strip + ", list " + list, strip < list);
+        assertTrue("blocks " + blocks, blocks < 0.7f);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsStepNotDividingChunk()
+    {
+        LodIndexBuilder.build(SIZE, 10, 4, 4, 4, 4, 4, LodIndexBuilder.Mode.LIST);
+    }
+    
+    private static float getAcmr(LodIndexBuilder.Mode mode)
+    {
+        ShortBuffer elements = LodIndexBuilder.build(SIZE, SIZE, mode);
+        
+        return LodIndexBuilder.getAcmr(elements, mode, 16);
+    }
+    
+    /**
+     * Checks that triangles have the same winding, every inner edge is
+     * shared by two triangles in opposite directions, open edges lie on
+     * chunk border at neighbour's step and area equals chunk area.
+     */
+    private void check(int columns, int rows, int step,
+            int left, int right, int top, int bottom, LodIndexBuilder.Mode mode)
+    {
+        String name = mode + " " + columns + "x" + rows + " step " + step
+                + " edges " + left + "," + right + "," + top + "," + bottom;
+        
+        ShortBuffer elements = LodIndexBuilder.build(columns, rows, step,
+                left, right, top, bottom, mode);
+        
+        int vertices = (columns + 1) * (rows + 1);
+        int count = mode.isStrip() ? elements.remaining() - 2 : elements.remaining() / 3;
+        
+        edges.clear();
+        long area = 0;
+        int triangles = 0;
+        
+        for(int t=0; t<count; t++)
+        {
+            int a, b, c;
+            
+            if(mode.isStrip())
+            {
+                // odd triangles of strip have reversed order
+                int i = elements.position() + t;
+                a = elements.get(i + (t % 2));
+                b = elements.get(i + 1 - (t % 2));
+                c = elements.get(i + 2);
+                
+                if(a == b || b == c || c == a) continue;
+            }
+            else
+            {
+                int i = elements.position() + 3 * t;
+                a = elements.get(i);
+                b = elements.get(i + 1);
+                c = elements.get(i + 2);
+            }
+            
+            // messages are built only on failure, there are millions of checks
+            if(a < 0 || a >= vertices || b < 0 || b >= vertices
+                    || c < 0 || c >= vertices)
+                fail(name + ": index out of range");
+            
+            int ax = a % (columns + 1), ay = a / (columns + 1);
+            int bx = b % (columns + 1), by = b / (columns + 1);
+            int cx = c % (columns + 1), cy = c / (columns + 1);
+            
+            // grid y grows downwards, so front faces have negative area
+            long twice = (long) (by - ay) * (cx - ax) - (long) (bx - ax) * (cy - ay);
+            
+            if(twice <= 0)
+                fail(name + ": wrong winding or degenerate triangle");
+            
+            area += twice;
+            triangles++;
+            
+            if(!edges.add(key(a, b)) || !edges.add(key(b, c)) || !edges.add(key(c, a)))
+                fail(name + ": overlapping triangles");
+        }
+        
+        assertEquals(name, 2L * columns * rows, area);
+        assertEquals(name, triangles, LodIndexBuilder.getTriangleCount(elements, mode));
+        
+        for(int i=0; i<edges.size(); i++)
+        {
+            long edge = edges.get(i);
+            int a = (int) (edge >> 32);
+            int b = (int) edge;
+            
+            if(edges.contains(key(b, a))) continue;
+            
+            // open edge, must be border segment of neighbour's step
+            int ax = a % (columns + 1), ay = a / (columns + 1);
+            int bx = b % (columns + 1), by = b / (columns + 1);
+            
+            int expected;
+            
+            if(ax == 0 && bx == 0)
+                expected = left;
+            else if(ax == columns && bx == columns)
+                expected = right;
+            else if(ay == 0 && by == 0)
+                expected = top;
+            else if(ay == rows && by == rows)
+                expected = bottom;
+            else
+                throw new AssertionError(name + ": crack inside chunk");
+            
+            boolean vertical = ax == bx;
+            int start = vertical ? Math.min(ay, by) : Math.min(ax, bx);
+            int length = vertical ? Math.abs(ay - by) : Math.abs(ax - bx);
+            
+            assertEquals(name + ": border segment", expected, length);
+            assertEquals(name + ": border vertex off neighbour's grid", 0, start % expected);
+        }
+    }
+    
+    private static long key(int a, int b)
+    {
+        return ((long) a << 32) | b;
+    }
+    
+    /**
+     * Set of directed edges without boxing, the test checks millions.
+     */
+    private static class EdgeSet
+    {
+        private final long[] table;
+        private final long[] keys;
+        private final int[] slots;
+        private int size = 0;
+        
+        
+        public EdgeSet(int maxSize)
+        {
+            // at most half full, so probes stay short
+            table = new long[Integer.highestOneBit(maxSize) * 4];
+            keys = new long[maxSize];
+            slots = new int[maxSize];
+            Arrays.fill(table, -1L);
+        }
+        
+        public void clear()
+        {
+            for(int i=0; i<size; i++)
+                table[slots[i]] = -1L;
+            
+            size = 0;
+        }
+        
+        public int size()
+        {
+            return size;
+        }
+        
+        public long get(int index)
+        {
+            return keys[index];
+        }
+        
+        public boolean add(long key)
+        {
+            int slot = find(key);
+            
+            if(table[slot] == key) return false;
+            
+            table[slot] = key;
+            keys[size] = key;
+            slots[size++] = slot;
+            
+            return true;
+        }
+        
+        public boolean contains(long key)
+        {
+            return table[find(key)] == key;
+        }
+        
+        private int find(long key)
+        {
+            int mask = table.length - 1;
+            int slot = (int) (key ^ (key >>> 29)) * 0x9E3779B1 & mask;
+            
+            while(table[slot] != -1L && table[slot] != key)
+                slot = (slot + 1) & mask;
+            
+            return slot;
+        }
+    }
+}
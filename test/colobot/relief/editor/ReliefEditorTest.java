@@ -0,0 +1,175 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import javax.swing.SwingUtilities;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ReliefEditorTest
+{
+    private static final int SIZE = 16;
+    private static final long TIMEOUT = 10000;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private final ReliefEditor editor = new ReliefEditor();
+    
+    
+    @Test
+    public void savingRawReliefAsImageLeavesRawFile() throws Exception
+    {
+        final File raw = folder.newFile("relief.crhf");
+        final File png = new File(folder.getRoot(), "relief.png");
+        MappedHeightfield.write(raw, createRelief(), null);
+        
+        open(raw);
+        assertTrue(editor.getRelief() instanceof MappedHeightfield);
+        
+        byte[] before = Files.readAllBytes(raw.toPath());
+        save(png);
+        edit(40);
+        
+        // edit goes to memory and to image on next save, not to raw file
+        assertArrayEquals(before, Files.readAllBytes(raw.toPath()));
+        assertFalse(editor.getRelief() instanceof MappedHeightfield);
+        assertTrue(editor.getHistory().canUndo());
+        
+        save(png);
+        assertSamples(editor.getRelief(), ReliefIO.read(png));
+    }
+    
+    @Test
+    public void savingImageAsRawMapsSavedFile() throws Exception
+    {
+        File png = folder.newFile("relief.png");
+        File raw = new File(folder.getRoot(), "relief.crhf");
+        ReliefIO.write(createRelief(), png);
+        
+        open(png);
+        assertFalse(editor.getRelief() instanceof MappedHeightfield);
+        
+        edit(40);
+        save(raw);
+        
+        Heightfield relief = editor.getRelief();
+        assertTrue(MappedHeightfield.isMapped(relief, raw));
+        assertTrue(editor.getHistory().canUndo());
+        
+        // edits after saving go straight to raw file
+        edit(-20);
+        assertSamples(relief, ReliefIO.read(raw));
+        
+        byte[] image = Files.readAllBytes(png.toPath());
+        edit(5);
+        assertArrayEquals(image, Files.readAllBytes(png.toPath()));
+    }
+    
+    @Test
+    public void savingRawReliefToItselfKeepsMapping() throws Exception
+    {
+        File raw = folder.newFile("relief.crhf");
+        MappedHeightfield.write(raw, createRelief(), null);
+        
+        open(raw);
+        Heightfield relief = editor.getRelief();
+        
+        edit(40);
+        save(raw);
+        
+        assertSame(relief, editor.getRelief());
+        assertTrue(editor.getHistory().canUndo());
+    }
+    
+    private static Heightfield createRelief()
+    {
+        Heightfield relief = new Heightfield(SIZE, SIZE);
+        
+        for(int j=0; j<SIZE; j++)
+            for(int i=0; i<SIZE; i++)
+                relief.set(i, j, 100 + i + j);
+        
+        return relief;
+    }
+    
+    private void open(final File file) throws Exception
+    {
+        run(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                editor.open(file);
+            }
+        });
+        
+        waitForTask();
+    }
+    
+    private void save(final File file) throws Exception
+    {
+        run(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                editor.save(file);
+            }
+        });
+        
+        waitForTask();
+    }
+    
+    private void edit(final int change) throws Exception
+    {
+        run(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                editor.changePixel(change);
+            }
+        });
+    }
+    
+    private void waitForTask() throws Exception
+    {
+        final boolean[] busy = { true };
+        long end = System.currentTimeMillis() + TIMEOUT;
+        
+        while(busy[0])
+        {
+            assertTrue("file task timed out", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+            
+            run(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    busy[0] = editor.isBusy();
+                }
+            });
+        }
+    }
+    
+    private static void run(Runnable runnable)
+            throws InterruptedException, InvocationTargetException
+    {
+        SwingUtilities.invokeAndWait(runnable);
+    }
+    
+    private static void assertSamples(Heightfield expected, Heightfield actual)
+    {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertTrue(expected.getBuffer().equals(actual.getBuffer()));
+    }
+}
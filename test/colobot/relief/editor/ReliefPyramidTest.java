@@ -0,0 +1,187 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReliefPyramidTest
+{
+    // odd sizes give levels with duplicated edge cells
+    private static final int[][] SIZES = {
+        { 1, 1 }, { 1, 7 }, { 9, 1 }, { 2, 3 }, { 33, 17 }, { 101, 67 }, { 64, 64 },
+    };
+    private static final int QUERIES = 2000;
+    
+    private final Random random = new Random(5);
+    
+    
+    @Test
+    public void levelsMatchRelief()
+    {
+        for(int[] size : SIZES)
+        {
+            Heightfield relief = createRelief(size[0], size[1]);
+            
+            checkLevels(new ReliefPyramid(relief), relief);
+        }
+    }
+    
+    @Test
+    public void queriesMatchScan()
+    {
+        for(int[] size : SIZES)
+        {
+            Heightfield relief = createRelief(size[0], size[1]);
+            
+            checkQueries(new ReliefPyramid(relief), relief);
+        }
+    }
+    
+    @Test
+    public void updatesChangedRectangle()
+    {
+        for(int[] size : SIZES)
+        {
+            Heightfield relief = createRelief(size[0], size[1]);
+            ReliefPyramid pyramid = new ReliefPyramid(relief);
+            
+            for(int n=0; n<20; n++)
+            {
+                // rectangles may reach outside of relief
+                int x1 = random.nextInt(size[0] + 4) - 2;
+                int y1 = random.nextInt(size[1] + 4) - 2;
+                int x2 = x1 + random.nextInt(size[0] / 2 + 3);
+                int y2 = y1 + random.nextInt(size[1] / 2 + 3);
+                
+                int value = random.nextInt(256);
+                
+                for(int y=Math.max(y1, 0); y<=Math.min(y2, size[1] - 1); y++)
+                    for(int x=Math.max(x1, 0); x<=Math.min(x2, size[0] - 1); x++)
+                        relief.set(x, y, value ^ (x * 7 + y * 13) & 0xFF);
+                
+                pyramid.update(x1, y1, x2, y2);
+                
+                checkLevels(pyramid, relief);
+            }
+            
+            checkQueries(pyramid, relief);
+        }
+    }
+    
+    @Test
+    public void emptyQueryGivesNeutralValue()
+    {
+        ReliefPyramid pyramid = new ReliefPyramid(createRelief(5, 5));
+        
+        assertEquals(255, pyramid.findMin(3, 3, 2, 4));
+        assertEquals(0, pyramid.findMax(3, 3, 2, 4));
+        assertEquals(255, pyramid.findMin(6, 0, 9, 4));
+    }
+    
+    private Heightfield createRelief(int width, int height)
+    {
+        Heightfield relief = new Heightfield(width, height);
+        
+        for(int i=0; i<width*height; i++)
+            relief.set(i, random.nextInt(256));
+        
+        return relief;
+    }
+    
+    /**
+     * Compares every cell of every level with relief cells it covers.
+     */
+    private static void checkLevels(ReliefPyramid pyramid, Heightfield relief)
+    {
+        int width = relief.getWidth();
+        int height = relief.getHeight();
+        
+        for(int k=0; k<pyramid.getLevelCount(); k++)
+        {
+            assertEquals((width + (1 << k) - 1) >> k, pyramid.getWidth(k));
+            assertEquals((height + (1 << k) - 1) >> k, pyramid.getHeight(k));
+            
+            for(int y=0; y<pyramid.getHeight(k); y++)
+            {
+                for(int x=0; x<pyramid.getWidth(k); x++)
+                {
+                    int x1 = x << k, x2 = Math.min((x + 1) << k, width) - 1;
+                    int y1 = y << k, y2 = Math.min((y + 1) << k, height) - 1;
+                    String name = width + "x" + height + " level " + k
+                            + " cell " + x + "," + y;
+                    
+                    assertEquals(name, scan(relief, x1, y1, x2, y2, false),
+                            pyramid.getMin(k, x, y));
+                    assertEquals(name, scan(relief, x1, y1, x2, y2, true),
+                            pyramid.getMax(k, x, y));
+                    assertEquals(name, average(relief, x1, y1, x2, y2),
+                            pyramid.getAverage(k, x, y));
+                }
+            }
+        }
+        
+        assertEquals(1, pyramid.getWidth(pyramid.getLevelCount() - 1));
+        assertEquals(1, pyramid.getHeight(pyramid.getLevelCount() - 1));
+    }
+    
+    private void checkQueries(ReliefPyramid pyramid, Heightfield relief)
+    {
+        int width = relief.getWidth();
+        int height = relief.getHeight();
+        
+        for(int n=0; n<QUERIES; n++)
+        {
+            int x1 = random.nextInt(width + 2) - 1;
+            int y1 = random.nextInt(height + 2) - 1;
+            int x2 = x1 + random.nextInt(width + 1);
+            int y2 = y1 + random.nextInt(height + 1);
+            
+            String name = width + "x" + height + " rectangle "
+                    + x1 + "," + y1 + " - " + x2 + "," + y2;
+            
+            assertEquals(name, scan(relief, x1, y1, x2, y2, false),
+                    pyramid.findMin(x1, y1, x2, y2));
+            assertEquals(name, scan(relief, x1, y1, x2, y2, true),
+                    pyramid.findMax(x1, y1, x2, y2));
+        }
+    }
+    
+    private static int scan(Heightfield relief, int x1, int y1, int x2, int y2,
+            boolean maximum)
+    {
+        int result = maximum ? 0 : 255;
+        
+        for(int y=Math.max(y1, 0); y<=Math.min(y2, relief.getHeight() - 1); y++)
+        {
+            for(int x=Math.max(x1, 0); x<=Math.min(x2, relief.getWidth() - 1); x++)
+            {
+                if(maximum)
+                    result = Math.max(result, relief.get(x, y));
+                else
+                    result = Math.min(result, relief.get(x, y));
+            }
+        }
+        
+        return result;
+    }
+    
+    private static int average(Heightfield relief, int x1, int y1, int x2, int y2)
+    {
+        long sum = 0;
+        int count = 0;
+        
+        for(int y=y1; y<=y2; y++)
+        {
+            for(int x=x1; x<=x2; x++)
+            {
+                sum += relief.get(x, y);
+                count++;
+            }
+        }
+        
+        return (int) ((sum + count / 2) / count);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TerrainMeshTest
+{
+    private static final float SCALE = 0.25f;
+    private static final float WATER = 10.0f;
+    
+    
+    /**
+     * Updates large enough for parallel path have to give the same
+     * vertices as the same update done in serial bands.
+     */
+    @Test
+    public void parallelUpdateMatchesSerial()
+    {
+        Heightfield relief = createRelief(401, 333);
+        
+        checkBands(relief, 0, 0, 400, 332);
+    }
+    
+    @Test
+    public void parallelPartialUpdateMatchesSerial()
+    {
+        Heightfield relief = createRelief(401, 333);
+        
+        checkBands(relief, 37, 21, 350, 300);
+    }
+    
+    @Test
+    public void serialUpdateMatchesSerial()
+    {
+        Heightfield relief = createRelief(130, 70);
+        
+        assertTrue(130 * 70 < TerrainMesh.PARALLEL_THRESHOLD);
+        checkBands(relief, 0, 0, 129, 69);
+    }
+    
+    /**
+     * Applies rectangle to one mesh at once and to other one in bands of
+     * rows below parallel threshold, then compares vertex buffers.
+     */
+    private static void checkBands(Heightfield relief,
+            int minX, int minY, int maxX, int maxY)
+    {
+        for(VertexLayout.Normals normals : VertexLayout.Normals.values())
+        {
+            VertexLayout layout = new VertexLayout(normals);
+            TerrainMesh whole = new TerrainMesh(relief.getWidth(),
+                    relief.getHeight(), layout, LodIndexBuilder.Mode.BLOCKS);
+            TerrainMesh bands = new TerrainMesh(relief.getWidth(),
+                    relief.getHeight(), layout, LodIndexBuilder.Mode.BLOCKS);
+            
+            whole.applyPatch(HeightPatch.capture(relief, minX, minY, maxX, maxY),
+                    SCALE, WATER);
+            whole.updateNormals(minX, minY, maxX, maxY);
+            
+            int band = Math.max(TerrainMesh.PARALLEL_THRESHOLD / (maxX - minX + 1) - 1, 1);
+            
+            // normals need all heights, so they go after all bands
+            for(int y=minY; y<=maxY; y+=band)
+            {
+                int end = Math.min(y + band - 1, maxY);
+                bands.applyPatch(HeightPatch.capture(relief, minX, y, maxX, end),
+                        SCALE, WATER);
+            }
+            
+            for(int y=minY; y<=maxY; y+=band)
+                bands.updateNormals(minX, y, maxX, Math.min(y + band - 1, maxY));
+            
+            for(int i=0; i<whole.getChunks().length; i++)
+            {
+                TerrainChunk a = whole.getChunks()[i];
+                TerrainChunk b = bands.getChunks()[i];
+                String name = normals + " chunk " + i;
+                
+                assertEquals(name, getBuffer(a), getBuffer(b));
+                assertEquals(name, a.getMinHeight(), b.getMinHeight(), 0.0f);
+                assertEquals(name, a.getMaxHeight(), b.getMaxHeight(), 0.0f);
+            }
+        }
+    }
+    
+    private static ByteBuffer getBuffer(TerrainChunk chunk)
+    {
+        ByteBuffer vertices = chunk.getVertices().duplicate();
+        vertices.clear();
+        
+        return vertices;
+    }
+    
+    private static Heightfield createRelief(int width, int height)
+    {
+        Heightfield relief = new Heightfield(width, height);
+        Random random = new Random(14);
+        
+        for(int y=0; y<height; y++)
+        {
+            for(int x=0; x<width; x++)
+            {
+                relief.set(x, y, (x * y / 37 + random.nextInt(20)) & 0xFF);
+            }
+        }
+        
+        return relief;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TextureImageTest
+{
+    @Test
+    public void averagesBlocks()
+    {
+        int[] pixels = {
+            0x00000000, 0x04040404, 0x10203040, 0x10203040,
+            0x08080808, 0x0C0C0C0C, 0x10203040, 0x10203040,
+        };
+        
+        int[] result = TextureImage.downsample(pixels, 4, 2);
+        
+        assertArrayEquals(new int[] { 0x06060606, 0x10203040 }, result);
+    }
+    
+    @Test
+    public void foldsOddColumnAndRow()
+    {
+        // 3x3 pixels make one texel from all nine
+        int[] pixels = new int[9];
+        
+        for(int i=0; i<9; i++)
+            pixels[i] = 0x01010101 * (9 * i);
+        
+        assertArrayEquals(new int[] { 0x24242424 },
+                TextureImage.downsample(pixels, 3, 3));
+        
+        // last column goes to last texel only
+        int[] row = { 0, 10, 20, 30, 40 };
+        
+        assertArrayEquals(new int[] { 5, 30 }, TextureImage.downsample(row, 5, 1));
+    }
+    
+    @Test
+    public void keepsSinglePixelSide()
+    {
+        int[] column = { 0, 10, 20 };
+        
+        assertArrayEquals(new int[] { 10 }, TextureImage.downsample(column, 1, 3));
+        assertArrayEquals(new int[] { 0x80FF00FF },
+                TextureImage.downsample(new int[] { 0x80FF00FF }, 1, 1));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class UploadPlannerTest
+{
+    private static final int STRIDE = 8;
+    private static final int COLUMNS = 64;
+    private static final int ROWS = 64;
+    private static final int ROW_BYTES = (COLUMNS + 1) * STRIDE;
+    
+    
+    @Test
+    public void mergesAdjacentRows()
+    {
+        UploadPlanner planner = new UploadPlanner(STRIDE, 0);
+        
+        // whole rows follow each other without gap
+        assertEquals(1, planner.plan(COLUMNS, ROWS, 0, 3, COLUMNS, 7));
+        assertEquals(3 * ROW_BYTES, planner.getOffset(0));
+        assertEquals(5 * ROW_BYTES, planner.getLength(0));
+        assertEquals(5 * ROW_BYTES, planner.getBytes());
+    }
+    
+    @Test
+    public void mergesNearbyRows()
+    {
+        // gap between rows is 55 vertices
+        UploadPlanner planner = new UploadPlanner(STRIDE, 55 * STRIDE);
+        
+        assertEquals(1, planner.plan(COLUMNS, ROWS, 10, 2, 19, 4));
+        assertEquals(2 * ROW_BYTES + 10 * STRIDE, planner.getOffset(0));
+        assertEquals(4 * ROW_BYTES + 20 * STRIDE - planner.getOffset(0),
+                planner.getLength(0));
+    }
+    
+    @Test
+    public void keepsDistantRowsSeparate()
+    {
+        UploadPlanner planner = new UploadPlanner(STRIDE, 55 * STRIDE - 1);
+        
+        assertEquals(3, planner.plan(COLUMNS, ROWS, 10, 2, 19, 4));
+        
+        for(int i=0; i<3; i++)
+        {
+            assertEquals((2 + i) * ROW_BYTES + 10 * STRIDE, planner.getOffset(i));
+            assertEquals(10 * STRIDE, planner.getLength(i));
+        }
+        
+        assertEquals(30 * STRIDE, planner.getBytes());
+    }
+    
+    @Test
+    public void growsForManyRanges()
+    {
+        UploadPlanner planner = new UploadPlanner(STRIDE, 0);
+        
+        assertEquals(ROWS + 1, planner.plan(COLUMNS, ROWS, 5, 0, 5, ROWS));
+        
+        for(int i=0; i<=ROWS; i++)
+        {
+            assertEquals(i * ROW_BYTES + 5 * STRIDE, planner.getOffset(i));
+            assertEquals(STRIDE, planner.getLength(i));
+        }
+    }
+    
+    @Test
+    public void clipsToChunk()
+    {
+        UploadPlanner planner = new UploadPlanner(STRIDE, 0);
+        
+        // rectangle larger than chunk is whole buffer
+        assertEquals(1, planner.plan(COLUMNS, ROWS, -3, -2, COLUMNS + 5, ROWS + 1));
+        assertEquals(0, planner.getOffset(0));
+        assertEquals((ROWS + 1) * ROW_BYTES, planner.getLength(0));
+        
+        // last row and column only
+        assertEquals(1, planner.plan(COLUMNS, ROWS, COLUMNS, ROWS, COLUMNS + 9, ROWS + 9));
+        assertEquals((ROWS + 1) * ROW_BYTES - STRIDE, planner.getOffset(0));
+        assertEquals(STRIDE, planner.getLength(0));
+        
+        // ranges never leave the buffer
+        planner = new UploadPlanner(STRIDE, 4096);
+        int count = planner.plan(10, 3, -1, 1, 4, 7);
+        
+        assertEquals(1, count);
+        assertEquals(11 * STRIDE, planner.getOffset(0));
+        assertEquals(3 * 11 * STRIDE + 5 * STRIDE - planner.getOffset(0),
+                planner.getLength(0));
+        assertTrue(planner.getOffset(0) + planner.getLength(0) <= 4 * 11 * STRIDE);
+    }
+    
+    @Test
+    public void skipsEmptyRectangles()
+    {
+        UploadPlanner planner = new UploadPlanner(STRIDE, 0);
+        
+        assertEquals(0, planner.plan(COLUMNS, ROWS, 5, 5, 4, 6));
+        assertEquals(0, planner.plan(COLUMNS, ROWS, COLUMNS + 1, 0, COLUMNS + 4, 3));
+        assertEquals(0, planner.plan(COLUMNS, ROWS, 0, -5, 3, -1));
+        assertEquals(0, planner.getCount());
+        assertEquals(0, planner.getBytes());
+    }
+    
+    @Test
+    public void takesDirtyRegion()
+    {
+        UploadPlanner planner = new UploadPlanner(STRIDE, 0);
+        DirtyRegion dirty = new DirtyRegion();
+        
+        dirty.add(3, 4);
+        dirty.add(6, 4);
+        
+        assertEquals(1, planner.plan(COLUMNS, ROWS, dirty));
+        assertEquals(4 * ROW_BYTES + 3 * STRIDE, planner.getOffset(0));
+        assertEquals(4 * STRIDE, planner.getLength(0));
+        assertTrue(dirty.isEmpty());
+        
+        assertEquals(0, planner.plan(COLUMNS, ROWS, dirty));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidStride()
+    {
+        new UploadPlanner(0, 0);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+    Copyright (c) 2014 Tomasz Kapuściński
+*/
+package colobot.relief.editor;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class VertexLayoutTest
+{
+    private static final float[] EDGES = { -1.0f, 0.0f, 1.0f };
+    
+    
+    @Test
+    public void packKeepsEdgeValues()
+    {
+        float[] normal = new float[3];
+        
+        for(float x : EDGES)
+        {
+            for(float y : EDGES)
+            {
+                for(float z : EDGES)
+                {
+                    int value = VertexLayout.pack(x, y, z);
+                    VertexLayout.unpack(value, normal);
+                    
+                    assertEquals(x, normal[0], 0.0f);
+                    assertEquals(y, normal[1], 0.0f);
+                    assertEquals(z, normal[2], 0.0f);
+                    
+                    // alpha bits stay zero
+                    assertEquals(0, value >>> 30);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void packUsesSignedFieldsWithXLowest()
+    {
+        int value = VertexLayout.pack(1.0f, 0.0f, -1.0f);
+        
+        assertEquals(511, value & 0x3FF);
+        assertEquals(0, value >> 10 & 0x3FF);
+        assertEquals(0x201, value >> 20 & 0x3FF);
+    }
+    
+    @Test
+    public void packClampsOutOfRange()
+    {
+        float[] normal = new float[3];
+        VertexLayout.unpack(VertexLayout.pack(2.0f, -3.0f, 0.0f), normal);
+        
+        assertEquals(1.0f, normal[0], 0.0f);
+        assertEquals(-1.0f, normal[1], 0.0f);
+        assertEquals(0.0f, normal[2], 0.0f);
+    }
+    
+    @Test
+    public void normalsRoundTrip()
+    {
+        checkRoundTrip(VertexLayout.Normals.FLOAT, 0.0f);
+        checkRoundTrip(VertexLayout.Normals.BYTE, 0.5f / 127);
+        checkRoundTrip(VertexLayout.Normals.PACKED, 0.5f / 511);
+    }
+    
+    @Test
+    public void dynamicStreamLayout()
+    {
+        assertEquals(16, new VertexLayout(VertexLayout.Normals.FLOAT).getDynamicStride());
+        assertEquals(8, new VertexLayout(VertexLayout.Normals.BYTE).getDynamicStride());
+        assertEquals(8, new VertexLayout(VertexLayout.Normals.PACKED).getDynamicStride());
+        
+        for(VertexLayout.Normals normals : VertexLayout.Normals.values())
+        {
+            VertexLayout layout = new VertexLayout(normals);
+            int stride = layout.getDynamicStride();
+            
+            assertEquals(VertexLayout.NORMAL_OFFSET + normals.getSize(), stride);
+            
+            ByteBuffer buffer = layout.createDynamic(5);
+            assertEquals(5 * stride, buffer.capacity());
+            
+            // new vertices are flat with normals pointing up
+            float[] normal = new float[3];
+            layout.getNormal(buffer, 4, normal);
+            
+            assertEquals(0.0f, layout.getHeight(buffer, 4), 0.0f);
+            assertArrayEquals(new float[] { 0.0f, 1.0f, 0.0f }, normal, 0.0f);
+            
+            // height is first float of vertex, normal does not overwrite it
+            layout.putHeight(buffer, 2, 12.5f);
+            layout.putNormal(buffer, 2, -1.0f, -1.0f, -1.0f);
+            
+            assertEquals(12.5f, buffer.getFloat(2 * stride + VertexLayout.HEIGHT_OFFSET), 0.0f);
+            assertEquals(12.5f, layout.getHeight(buffer, 2), 0.0f);
+            assertEquals(0.0f, layout.getHeight(buffer, 3), 0.0f);
+            
+            layout.getNormal(buffer, 1, normal);
+            assertArrayEquals(new float[] { 0.0f, 1.0f, 0.0f }, normal, 0.0f);
+            layout.getNormal(buffer, 3, normal);
+            assertArrayEquals(new float[] { 0.0f, 1.0f, 0.0f }, normal, 0.0f);
+        }
+    }
+    
+    @Test
+    public void staticStreamLayout()
+    {
+        FloatBuffer grid = VertexLayout.createStatic(3, 2);
+        
+        assertEquals(2 * 4, VertexLayout.STATIC_STRIDE);
+        assertEquals(0, grid.position());
+        assertEquals(4 * 3 * VertexLayout.STATIC_STRIDE / 4, grid.limit());
+        
+        // rows of vertices one after another, x first
+        for(int j=0; j<=2; j++)
+        {
+            for(int i=0; i<=3; i++)
+            {
+                int vertex = i + 4 * j;
+                
+                assertEquals(i, grid.get(2 * vertex), 0.0f);
+                assertEquals(j, grid.get(2 * vertex + 1), 0.0f);
+            }
+        }
+    }
+    
+    private static void checkRoundTrip(VertexLayout.Normals normals, float error)
+    {
+        VertexLayout layout = new VertexLayout(normals);
+        ByteBuffer buffer = layout.createDynamic(1);
+        float[] normal = new float[3];
+        
+        for(float x : EDGES)
+        {
+            for(float y : EDGES)
+            {
+                for(float z : EDGES)
+                {
+                    layout.putNormal(buffer, 0, x, y, z);
+                    layout.getNormal(buffer, 0, normal);
+                    
+                    assertArrayEquals(normals.toString(),
+                            new float[] { x, y, z }, normal, 0.0f);
+                }
+            }
+        }
+        
+        Random random = new Random(15);
+        
+        for(int i=0; i<1000; i++)
+        {
+            float x = 2 * random.nextFloat() - 1;
+            float y = 2 * random.nextFloat() - 1;
+            float z = 2 * random.nextFloat() - 1;
+            
+            layout.putNormal(buffer, 0, x, y, z);
+            layout.getNormal(buffer, 0, normal);
+            
+            assertArrayEquals(normals.toString(),
+                    new float[] { x, y, z }, normal, error + 1e-6f);
+        }
+    }
+}